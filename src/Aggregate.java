@@ -3,11 +3,18 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min) over any number of columns, grouped by any number of columns, in one
+ * pass over its child.
+ * <p>
+ * By default the groups are kept in a hash table until the child has been
+ * read. If the child's tuples arrive with the tuples of each group next to
+ * each other, for example sorted on the group by field, the aggregate can
+ * instead be computed in streaming mode (see {@link #setSortedInput}),
+ * which keeps only the current group and returns it as soon as the group
+ * changes.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -34,32 +41,87 @@ public class Aggregate extends Operator {
     int myAfield;
     int myGfield;
     Aggregator.Op myAop;
+    int[] myAfields;
+    int[] myGfields;
+    Aggregator.Op[] myAops;
     Aggregator myAgg;
     DbIterator myAggIT;
+    TupleDesc myTd;
+    boolean mySortedInput;
+
+    // streaming mode: the child's batches, the position in the current one,
+    // and the group being aggregated, or null before the first row
+    private transient MultiAggregator myStreamAgg;
+    private transient BatchIterator myStreamIn;
+    private transient TupleBatch myStreamBatch;
+    private transient int myStreamPos;
+    private transient Field[] myGroupKey;
+    private transient int[] myGroupState;
 
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	
+        this(child, new int[] { afield },
+             gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+             new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over groups of several columns.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates, one per
+     *            aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operators to use, one per aggregate
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+
         myChild = child;
-        myAfield = afield;
-        myGfield = gfield;
-        myAop = aop;
+        myAfields = afields;
+        myGfields = gfields;
+        myAops = aops;
+        myAfield = afields[0];
+        myGfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        myAop = aops[0];
 
-        Type aggtype = myChild.getTupleDesc().getFieldType(myAfield);
-        Type gbtype;
-        if(gfield > -1){
-            gbtype = myChild.getTupleDesc().getFieldType(myGfield);
+        TupleDesc childTd = myChild.getTupleDesc();
+        if(afields.length == 1 && gfields.length <= 1){
+            Type aggtype = childTd.getFieldType(myAfield);
+            Type gbtype;
+            if(myGfield > -1){
+                gbtype = childTd.getFieldType(myGfield);
+            }
+            else{
+                gbtype = null;
+            }
+            if(aggtype == Type.INT_TYPE){
+                myAgg = new IntegerAggregator(myGfield,gbtype,myAfield,myAop);
+            }
+            else if(aggtype == Type.STRING_TYPE){
+                myAgg = new StringAggregator(myGfield,gbtype,myAfield,myAop);
+            }
         }
         else{
-            gbtype = null;
+            myAgg = newMultiAggregator();
         }
-        if(aggtype == Type.INT_TYPE){
-            myAgg = new IntegerAggregator(myGfield,gbtype,myAfield,myAop);
+        myTd = outputDesc();
+    }
+
+    private MultiAggregator newMultiAggregator() {
+        TupleDesc childTd = myChild.getTupleDesc();
+        Type[] gbtypes = new Type[myGfields.length];
+        for(int i = 0; i < myGfields.length; i++){
+            gbtypes[i] = childTd.getFieldType(myGfields[i]);
         }
-        else if(aggtype == Type.STRING_TYPE){
-            myAgg = new StringAggregator(myGfield,gbtype,myAfield,myAop);
+        Type[] aggtypes = new Type[myAfields.length];
+        for(int i = 0; i < myAfields.length; i++){
+            aggtypes[i] = childTd.getFieldType(myAfields[i]);
         }
-
-
+        return new MultiAggregator(myGfields, gbtypes, myAfields, aggtypes, myAops);
     }
 
     /**
@@ -84,6 +146,28 @@ public class Aggregate extends Operator {
        return null;
     }
 
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples; empty if
+     *         there is no grouping
+     * */
+    public int[] groupFields() {
+        return myGfields;
+    }
+
+    /**
+     * @return the aggregate field indexes, one per aggregate
+     * */
+    public int[] aggregateFields() {
+        return myAfields;
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate
+     * */
+    public Aggregator.Op[] aggregateOps() {
+        return myAops;
+    }
+
     /**
      * @return the aggregate field
      * */
@@ -109,44 +193,189 @@ public class Aggregate extends Operator {
 
     }
 
+    /**
+     * Set the largest number of groups this aggregate keeps in memory at
+     * once; see {@link Aggregator#setMemoryBudget}.
+     */
+    public void setMemoryBudget(int groups) {
+        myAgg.setMemoryBudget(groups);
+    }
+
+    /**
+     * Tell this aggregate whether the child returns the tuples of each group
+     * next to each other, as it does when it is sorted on the group by
+     * fields. If so, the aggregate is computed in streaming mode: only the
+     * current group is kept in memory, and each group is returned as soon
+     * as the child moves on to the next one.
+     */
+    public void setSortedInput(boolean sorted) {
+        mySortedInput = sorted;
+    }
+
+    /**
+     * @return true if this aggregate is computed in streaming mode; see
+     *         {@link #setSortedInput}.
+     */
+    public boolean isSortedInput() {
+        return mySortedInput;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	return aop.toString();
     }
 
+    /**
+     * @return the operator that computes partial aggregates for aop over
+     *         parts of the input, in the first phase of a two-phase
+     *         aggregate.
+     */
+    public static Aggregator.Op partialOp(Aggregator.Op aop) {
+        return aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+    }
+
+    /**
+     * @return the operator that combines the partial aggregates computed by
+     *         {@link #partialOp}(aop) into aop's result.
+     */
+    public static Aggregator.Op finalOp(Aggregator.Op aop) {
+        switch (aop) {
+        case AVG:
+            return Aggregator.Op.SC_AVG;
+        case COUNT:
+            return Aggregator.Op.SUM;
+        default:
+            return aop;
+        }
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
         super.open();
         myChild.open();
-        while(myChild.hasNext()){
-            myAgg.mergeTupleIntoGroup(myChild.next());
+        if(mySortedInput){
+            myStreamAgg = newMultiAggregator();
+            startStream();
+            return;
+        }
+        //read the child a batch at a time, whichever way this is read
+        BatchIterator batches = BatchAdapter.of(myChild);
+        TupleBatch batch;
+        while((batch = batches.nextBatch()) != null){
+            myAgg.mergeBatchIntoGroups(batch);
         }
         myAggIT = myAgg.iterator();
         myAggIT.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
+     * Returns the next tuple. The first fields are the fields by which we are
+     * grouping, if any, and the rest are the results of computing each
      * aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+       if(mySortedInput){
+            return nextGroup();
+       }
 	   if(myAggIT.hasNext()){
             return myAggIT.next();
        }
        return null;
     }
 
+    /**
+     * Returns the next batch of aggregate results; see {@link #fetchNext}
+     * for their layout.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(mySortedInput){
+            TupleBatch batch = new TupleBatch(myStreamAgg.resultDesc());
+            Tuple t;
+            while(!batch.isFull() && (t = nextGroup()) != null){
+                batch.addTuple(t);
+            }
+            return batch.isEmpty() ? null : batch;
+        }
+        TupleBatch batch = new TupleBatch(myAggIT.getTupleDesc());
+        while(!batch.isFull() && myAggIT.hasNext()){
+            batch.addTuple(myAggIT.next());
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
+       if(mySortedInput){
+            myChild.rewind();
+            startStream();
+            return;
+       }
 	   myAggIT.rewind();
     }
 
+    private void startStream() {
+        myStreamIn = BatchAdapter.of(myChild);
+        myStreamBatch = null;
+        myStreamPos = 0;
+        myGroupKey = null;
+    }
+
+    /**
+     * Streaming mode: read the child up to the end of the current group.
+     *
+     * @return the current group's result tuple, or null if the child has
+     *         no more tuples
+     */
+    private Tuple nextGroup() throws TransactionAbortedException, DbException {
+        while(true){
+            if(myStreamBatch == null || myStreamPos >= myStreamBatch.size()){
+                myStreamBatch = myStreamIn.nextBatch();
+                myStreamPos = 0;
+                if(myStreamBatch == null){
+                    return endGroup();
+                }
+            }
+            if(myGroupKey != null && !inGroup(myStreamBatch, myStreamPos)){
+                //leave the row for the next group
+                return endGroup();
+            }
+            if(myGroupKey == null){
+                myGroupKey = new Field[myGfields.length];
+                for(int g = 0; g < myGfields.length; g++){
+                    myGroupKey[g] = myStreamBatch.getField(myStreamPos, myGfields[g]);
+                }
+                myGroupState = myStreamAgg.newState();
+            }
+            myStreamAgg.mergeRow(myGroupState, myStreamBatch, myStreamPos);
+            myStreamPos++;
+        }
+    }
+
+    /** @return true if row r of batch has the current group's key */
+    private boolean inGroup(TupleBatch batch, int r) {
+        for(int g = 0; g < myGfields.length; g++){
+            int[] ints = batch.ints[myGfields[g]];
+            boolean same = ints != null
+                ? ints[r] == ((IntField)myGroupKey[g]).getValue()
+                : batch.fields[myGfields[g]][r].equals(myGroupKey[g]);
+            if(!same){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple endGroup() {
+        if(myGroupKey == null){
+            return null;
+        }
+        Tuple t = myStreamAgg.resultTuple(Arrays.asList(myGroupKey), myGroupState);
+        myGroupKey = null;
+        return t;
+    }
+
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by an aggregate value column per aggregate (two for
+     * SUM_COUNT, the sum and the count).
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -154,12 +383,41 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-	   return myChild.getTupleDesc();
+	   return myTd;
+    }
+
+    private TupleDesc outputDesc() {
+        TupleDesc childTd = myChild.getTupleDesc();
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        for(int gfield : myGfields){
+            types.add(childTd.getFieldType(gfield));
+            names.add(childTd.getFieldName(gfield));
+        }
+        for(int i = 0; i < myAfields.length; i++){
+            types.add(Type.INT_TYPE);
+            names.add(nameOfAggregatorOp(myAops[i]) + " (" + childTd.getFieldName(myAfields[i]) + ")");
+            if(myAops[i] == Aggregator.Op.SUM_COUNT){
+                types.add(Type.INT_TYPE);
+                names.add("count (" + childTd.getFieldName(myAfields[i]) + ")");
+            }
+        }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     public void close() {
         super.close();
-    	myAggIT.close();
+        //the child is read completely by open in hash mode, but closing it
+        //still releases what it holds: buffered batches, spill files
+        myChild.close();
+        if(mySortedInput){
+            myStreamBatch = null;
+            myGroupKey = null;
+            return;
+        }
+        if(myAggIT != null){
+            myAggIT.close();
+        }
     }
 
     @Override
@@ -172,6 +430,7 @@ public class Aggregate extends Operator {
     @Override
     public void setChildren(DbIterator[] children) {
 	   myChild = children[0];
+	   myTd = outputDesc();
     }
     
 }
@@ -10,20 +10,19 @@ public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
     /**
-     * SUM_COUNT and SC_AVG will
-     * only be used in lab7, you are not required
-     * to implement them until then.
+     * SUM_COUNT and SC_AVG are used by two-phase aggregation: see
+     * {@link Aggregate#partialOp} and {@link Aggregate#finalOp}.
      * */
     public enum Op implements Serializable {
         MIN, MAX, SUM, AVG, COUNT,
         /**
-         * SUM_COUNT: compute sum and count simultaneously, will be
-         * needed to compute distributed avg in lab7.
+         * SUM_COUNT: compute sum and count simultaneously; the count is an
+         * extra field after the sum. Partial aggregate for AVG.
          * */
         SUM_COUNT,
         /**
-         * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
-         * will be used to compute distributed avg in lab7.
+         * SC_AVG: compute the avg of a set of SUM_COUNT tuples, whose count
+         * is the field after the aggregate field.
          * */
         SC_AVG;
 
@@ -73,13 +72,32 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if groups couldn't be spilled to disk
      */
-    public void mergeTupleIntoGroup(Tuple tup);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Merge every row of a batch into the aggregate, as if each had been
+     * passed to {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     * @throws DbException if groups couldn't be spilled to disk
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException;
 
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
+     * @throws DbException if spilled groups couldn't be read back
+     */
+    public DbIterator iterator() throws DbException;
+
+    /**
+     * Set the largest number of groups kept in memory at once. Partial
+     * aggregates of further groups are spilled to disk and merged when
+     * {@link #iterator} is called; after that the aggregator starts over
+     * with no groups.
      */
-    public DbIterator iterator();
+    public void setMemoryBudget(int groups);
     
 }
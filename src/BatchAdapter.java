@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * BatchAdapter reads a {@link DbIterator} a batch at a time, by collecting its
+ * tuples into {@link TupleBatch}es.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    DbIterator child;
+
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Read an iterator a batch at a time: an iterator that already produces
+     * batches is returned as is, anything else is wrapped in a BatchAdapter.
+     * Either way, opening and closing the result opens and closes it.
+     */
+    public static BatchIterator of(DbIterator it) {
+        if (it instanceof BatchIterator)
+            return (BatchIterator) it;
+        return new BatchAdapter(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = new TupleBatch(child.getTupleDesc());
+        while (!b.isFull() && child.hasNext())
+            b.addTuple(child.next());
+        return b.isEmpty() ? null : b;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * instead of one Tuple per call, each call returns a {@link TupleBatch} of up
+ * to about {@link TupleBatch#DEFAULT_SIZE} rows, which cuts the per-row cost
+ * of virtual calls and allocation between operators.
+ * <p>
+ * Operators that implement both interfaces can be read either way, but a
+ * consumer should stick to one of them between open and close.
+ * {@link BatchAdapter} and {@link TupleAdapter} convert between the two, so
+ * that tuple-at-a-time and batch operators can be mixed in one plan.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. The caller owns the returned batch; the
+     * iterator does not reuse or change it afterwards.
+     *
+     * @return the next non-empty batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapIndex is a {@link ColumnIndex} for columns with few distinct values
+ * (status codes, flags and the like). It keeps one {@link CompressedBitmap}
+ * per distinct value, holding the positions (see {@link HeapFile#getPosition})
+ * of the tuples with that value.
+ * <p>
+ * Bitmaps for several predicates can be combined with
+ * {@link CompressedBitmap#and} and {@link CompressedBitmap#or} before any heap
+ * page is read; {@link BitmapIndexScan} then reads only the pages holding
+ * candidate tuples.
+ */
+public class BitmapIndex implements ColumnIndex {
+
+    HeapFile myFile;
+    int myField;
+    HashMap<Field,CompressedBitmap> bitmaps;
+    // tuples inserted while a rebuild scans the file
+    private ArrayList<Tuple> addedDuringRebuild;
+
+    /**
+     * Create an empty bitmap index over a column of a file. Use
+     * {@link #create} to build an index and attach it to the file.
+     *
+     * @param hf the file to index
+     * @param field the column to index
+     */
+    public BitmapIndex(HeapFile hf, int field) {
+        myFile = hf;
+        myField = field;
+        bitmaps = new HashMap<Field,CompressedBitmap>();
+    }
+
+    /**
+     * Build a bitmap index over a column of a file and register it with the
+     * file, so later inserts are reflected in it.
+     *
+     * @param tid the transaction to scan the file as a part of
+     * @param hf the file to index
+     * @param field the column to index
+     * @return the new index
+     */
+    public static BitmapIndex create(TransactionId tid, HeapFile hf, int field)
+            throws DbException, TransactionAbortedException {
+        BitmapIndex idx = new BitmapIndex(hf, field);
+        idx.rebuild(tid);
+        hf.addIndex(idx);
+        return idx;
+    }
+
+    public int getField() {
+        return myField;
+    }
+
+    public synchronized void addTuple(Tuple t) {
+        add(bitmaps, t);
+        if (addedDuringRebuild != null)
+            addedDuringRebuild.add(t);
+    }
+
+    private void add(HashMap<Field,CompressedBitmap> bitmaps, Tuple t) {
+        Field key = t.getField(myField);
+        CompressedBitmap bm = bitmaps.get(key);
+        if (bm == null) {
+            bm = new CompressedBitmap();
+            bitmaps.put(key, bm);
+        }
+        bm.add(myFile.getPosition(t.getRecordId()));
+    }
+
+    /**
+     * The file is scanned without holding this index's lock, since the scan
+     * may wait for the page locks of a transaction that is inserting.
+     */
+    public void rebuild(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        synchronized (this) {
+            addedDuringRebuild = new ArrayList<Tuple>();
+        }
+        HashMap<Field,CompressedBitmap> fresh = new HashMap<Field,CompressedBitmap>();
+        try {
+            DbFileIterator it = myFile.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                add(fresh, it.next());
+            it.close();
+            synchronized (this) {
+                for (Tuple t : addedDuringRebuild)
+                    add(fresh, t);
+                bitmaps = fresh;
+            }
+        } finally {
+            synchronized (this) {
+                addedDuringRebuild = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct values in the indexed column.
+     */
+    public synchronized int numDistinctValues() {
+        return bitmaps.size();
+    }
+
+    /**
+     * Return the positions of the tuples whose indexed field satisfies
+     * <tt>field op operand</tt>. Every distinct value is tested against the
+     * predicate, so any {@link Predicate.Op} (including LIKE) is supported.
+     *
+     * @return a new bitmap holding the matching positions.
+     */
+    public synchronized CompressedBitmap lookup(Predicate.Op op, Field operand) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (Map.Entry<Field,CompressedBitmap> e : bitmaps.entrySet()) {
+            if (e.getKey().compare(op, operand))
+                result = result.or(e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Return the positions of the tuples that may satisfy p.
+     *
+     * @throws IllegalArgumentException if p is not over the indexed field.
+     */
+    public CompressedBitmap lookup(Predicate p) {
+        if (p.getField() != myField)
+            throw new IllegalArgumentException("predicate is not over field " + myField);
+        return lookup(p.getOp(), p.getOperand());
+    }
+}
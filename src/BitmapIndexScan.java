@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapIndexScan is an access method that reads only the tuples at a set of
+ * candidate positions, such as those produced by combining
+ * {@link BitmapIndex} lookups. Positions are visited in file order and each
+ * page holding a candidate is fetched from the BufferPool once; pages without
+ * candidates are never read.
+ * <p>
+ * Candidates may be stale (see {@link ColumnIndex}), so a BitmapIndexScan
+ * should sit below a {@link Filter} that re-checks the predicates it was
+ * built from.
+ */
+public class BitmapIndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    CompressedBitmap myCandidates;
+
+    /**
+     * Creates a scan over the tuples of a table at the specified positions.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan})
+     * @param candidates
+     *            the positions (see {@link HeapFile#getPosition}) to read.
+     */
+    public BitmapIndexScan(TransactionId tid, int tableid, String tableAlias,
+            CompressedBitmap candidates) {
+        super(tid, tableid, tableAlias);
+        myCandidates = candidates;
+    }
+
+    /**
+     * @return the positions this scan reads.
+     */
+    public CompressedBitmap getCandidates() {
+        return myCandidates;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(myTableID);
+        db_it = new PositionIterator(myTID, hf, myCandidates.toArray());
+        db_it.open();
+    }
+
+    /**
+     * Iterates over the tuples at a sorted array of positions in a HeapFile.
+     */
+    static class PositionIterator extends AbstractDbFileIterator {
+
+        TransactionId myTID;
+        HeapFile myHeapFile;
+        int[] positions;
+        int slotsPerPage;
+        int cur;
+        HeapPage curPage;
+
+        PositionIterator(TransactionId tid, HeapFile hf, int[] positions) {
+            myTID = tid;
+            myHeapFile = hf;
+            this.positions = positions;
+            slotsPerPage = hf.getSlotsPerPage();
+        }
+
+        public void open() {
+            cur = 0;
+            curPage = null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            curPage = null;
+            cur = positions.length;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            int numPages = myHeapFile.numPages();
+            while (cur < positions.length) {
+                int pgNo = positions[cur] / slotsPerPage;
+                int slot = positions[cur] % slotsPerPage;
+                cur++;
+                if (pgNo >= numPages)
+                    break;
+                if (curPage == null || curPage.getId().getPageNumber() != pgNo) {
+                    PageId pid = new HeapPageId(myHeapFile.getId(), pgNo);
+                    curPage = (HeapPage) Database.getBufferPool().getPage(myTID, pid, Permissions.READ_ONLY);
+                }
+                Tuple t = curPage.getTuple(slot);
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BloomFilter is a fixed-size probabilistic set of Fields. It never reports
+ * that a field it was given is absent, but may report a field it was never
+ * given as present, with a probability that grows as more fields are added
+ * than it was sized for.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** False positive rate used when none is given. */
+    public static final double DEFAULT_FPP = 0.01;
+
+    final long[] bits;
+    final int numBits;
+    final int numHashes;
+
+    /**
+     * Create an empty filter sized for the given number of fields.
+     *
+     * @param expectedItems the number of fields expected to be added
+     * @param fpp the desired false positive probability once expectedItems
+     *            fields have been added
+     */
+    public BloomFilter(int expectedItems, double fpp) {
+        int n = Math.max(1, expectedItems);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        bits = new long[(int) ((m + 63) / 64)];
+        numBits = bits.length * 64;
+        numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public BloomFilter(int expectedItems) {
+        this(expectedItems, DEFAULT_FPP);
+    }
+
+    /**
+     * Add a field to the filter.
+     */
+    public void add(Field f) {
+        addHash(f.hashCode());
+    }
+
+    /**
+     * Add a value to the filter by its hash code, for callers that hold
+     * values other than Fields; it must be tested with
+     * {@link #mightContainHash}.
+     */
+    void addHash(int hashCode) {
+        long h = mix(hashCode);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = bitFor(h1 + i * h2);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was definitely never added to this filter, true if
+     *         it may have been.
+     */
+    public boolean mightContain(Field f) {
+        return mightContainHash(f.hashCode());
+    }
+
+    /**
+     * @return false if no value with this hash code was added to this
+     *         filter, true if one may have been.
+     */
+    boolean mightContainHash(int hashCode) {
+        long h = mix(hashCode);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = bitFor(h1 + i * h2);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int bitFor(int combined) {
+        return (combined & Integer.MAX_VALUE) % numBits;
+    }
+
+    /**
+     * Spread the bits of a hash code over a long (the finalizer of
+     * MurmurHash3), so that the two halves can be used as independent hashes.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+/**
+ * BloomFilterIndex is a {@link ColumnIndex} that keeps a {@link BloomFilter}
+ * of the values of one column. It cannot find tuples, but it can tell that a
+ * value is definitely not in the table, which lets equality lookups and hash
+ * join probes of missing keys skip the scan altogether.
+ * <p>
+ * A Bloom filter can't forget values, so deleted values linger until the
+ * index is rebuilt (see {@link HeapFile#rebuildIndexes}); rebuilding also
+ * resizes the filter for the current size of the table.
+ */
+public class BloomFilterIndex implements ColumnIndex {
+
+    HeapFile myFile;
+    int myField;
+    BloomFilter myFilter;
+    // values inserted while a rebuild scans the file
+    private java.util.ArrayList<Field> addedDuringRebuild;
+
+    /**
+     * Create an empty Bloom filter index over a column of a file. Use
+     * {@link #create} to build an index and attach it to the file.
+     *
+     * @param hf the file to index
+     * @param field the column to index
+     */
+    public BloomFilterIndex(HeapFile hf, int field) {
+        myFile = hf;
+        myField = field;
+        myFilter = new BloomFilter(capacity());
+    }
+
+    /**
+     * Build a Bloom filter index over a column of a file and register it with
+     * the file, so later inserts are reflected in it.
+     *
+     * @param tid the transaction to scan the file as a part of
+     * @param hf the file to index
+     * @param field the column to index
+     * @return the new index
+     */
+    public static BloomFilterIndex create(TransactionId tid, HeapFile hf, int field)
+            throws DbException, TransactionAbortedException {
+        BloomFilterIndex idx = new BloomFilterIndex(hf, field);
+        idx.rebuild(tid);
+        hf.addIndex(idx);
+        return idx;
+    }
+
+    /**
+     * Size the filter for a full table plus one more page, so it stays
+     * accurate while the table grows for a while.
+     */
+    private int capacity() {
+        return (myFile.numPages() + 1) * myFile.getSlotsPerPage();
+    }
+
+    public int getField() {
+        return myField;
+    }
+
+    public synchronized void addTuple(Tuple t) {
+        myFilter.add(t.getField(myField));
+        if (addedDuringRebuild != null)
+            addedDuringRebuild.add(t.getField(myField));
+    }
+
+    /**
+     * The file is scanned without holding this index's lock, since the scan
+     * may wait for the page locks of a transaction that is inserting.
+     */
+    public void rebuild(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        synchronized (this) {
+            addedDuringRebuild = new java.util.ArrayList<Field>();
+        }
+        BloomFilter fresh = new BloomFilter(capacity());
+        try {
+            DbFileIterator it = myFile.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                fresh.add(it.next().getField(myField));
+            it.close();
+            synchronized (this) {
+                for (Field f : addedDuringRebuild)
+                    fresh.add(f);
+                myFilter = fresh;
+            }
+        } finally {
+            synchronized (this) {
+                addedDuringRebuild = null;
+            }
+        }
+    }
+
+    /**
+     * @return false if no tuple in the table has value f in the indexed
+     *         column, true if some tuple may.
+     */
+    public synchronized boolean mightContain(Field f) {
+        return myFilter.mightContain(f);
+    }
+
+    /**
+     * An EQUALS predicate on a value that is definitely absent matches
+     * nothing, so the result is empty; everything else can't be narrowed down.
+     */
+    public synchronized CompressedBitmap lookup(Predicate.Op op, Field operand) {
+        if (op == Predicate.Op.EQUALS && !myFilter.mightContain(operand))
+            return new CompressedBitmap();
+        return null;
+    }
+
+    /**
+     * Find a Bloom filter on the table underneath a plan, so that a probe can
+     * rule out values the plan can never produce. Only {@link Filter}s are
+     * looked through, since they keep their child's columns and only remove
+     * tuples.
+     *
+     * @param plan the plan whose values will be probed
+     * @param field the column of plan's output that will be probed
+     * @return the Bloom filter index, or null if there is none.
+     */
+    public static BloomFilterIndex find(DbIterator plan, int field) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        if (!(plan instanceof SeqScan))
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).myTableID);
+        if (!(f instanceof HeapFile))
+            return null;
+        for (ColumnIndex idx : ((HeapFile) f).getIndexes()) {
+            if (idx instanceof BloomFilterIndex && idx.getField() == field)
+                return (BloomFilterIndex) idx;
+        }
+        return null;
+    }
+}
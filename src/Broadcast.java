@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * Broadcast is an exchange that sends every row of its inputs to all of its
+ * outputs. It feeds the small side of a join whose predicate can't be
+ * partitioned on, such as an inequality, to each parallel copy of the join;
+ * when that join is a nested loops join, which rewinds its inner side, the
+ * broadcast is made {@link #setRewindable rewindable} so that the side is
+ * read once.
+ */
+public class Broadcast extends ExchangeProducer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param inputs
+     *            the subtrees to run in parallel; all must have the same
+     *            TupleDesc.
+     * @param consumers
+     *            the number of outputs
+     */
+    public Broadcast(DbIterator[] inputs, int consumers) {
+        super("Broadcast", inputs, consumers);
+    }
+
+    /**
+     * The outputs of a rewindable exchange hand out copies of what they are
+     * sent, so one batch can be sent to all of them; otherwise each output
+     * gets a copy of its own.
+     */
+    protected void route(TupleBatch b, TupleBatch[] pending) {
+        int last = numOutputs() - 1;
+        for (int i = 0; i < last; i++)
+            send(i, isRewindable() ? b : b.copy());
+        send(last, b);
+    }
+}
@@ -90,23 +90,40 @@ public class BufferPool {
             throw new TransactionAbortedException();
         }
         
-        //if page is already in bufferpool, return it
-        if(my_BufferPool.containsKey(pid)){
-            return my_BufferPool.get(pid);
-        }
-        //if bufferpool has reach its limit, eviction needs to occur (not for lab1)
-        if (BufferPool.my_BufferPool.size() == maxPages){
-            evictPage();
+        //the cache is shared by every thread of a parallel plan, so only one
+        //of them may look pages up or add them at a time
+        synchronized(this){
+            //if page is already in bufferpool, return it
+            Page cached = my_BufferPool.get(pid);
+            if(cached != null){
+                return cached;
+            }
         }
-        //find the corresponding page using the pid and add it to bufferpool
-        
+
+        //read the page without holding the cache, so threads scanning
+        //different pages read them from disk at the same time. The lock
+        //taken above keeps other transactions from changing the page
+        //meanwhile
         int table_id = pid.getTableId();
         Catalog global_cat = Database.getCatalog();
-        DbFile db = global_cat.myCatalog.get(table_id).file;
+        DbFile db = global_cat.getDatabaseFile(table_id);
         Page req_page = db.readPage(pid);
-        my_BufferPool.put(pid, req_page);
-        lruList.addLast(pid);
-        return req_page;
+
+        synchronized(this){
+            //another thread may have read the same page meanwhile; keep
+            //the copy that was cached first
+            Page cached = my_BufferPool.get(pid);
+            if(cached != null){
+                return cached;
+            }
+            //if bufferpool has reach its limit, eviction needs to occur (not for lab1)
+            if (BufferPool.my_BufferPool.size() >= maxPages){
+                evictPage();
+            }
+            my_BufferPool.put(pid, req_page);
+            lruList.addLast(pid);
+            return req_page;
+        }
         
     }
 
@@ -197,8 +214,8 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        HeapFile hf = (HeapFile)Database.getCatalog().myCatalog.get(tableId).file;
-        ArrayList<Page> pages = hf.insertTuple(tid,t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> pages = file.insertTuple(tid,t);
         //mark dirtied pages
         //and re add them to back of lrulist
         pages.forEach((page)->{
@@ -231,7 +248,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
 
         int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile hf = (HeapFile)Database.getCatalog().myCatalog.get(tableId).file;
+        HeapFile hf = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> pages = hf.deleteTuple(tid,t);
         //mark dirtied pages
         //and re add them to back of lrulist
@@ -288,7 +305,7 @@ public class BufferPool {
             throw new IOException("page not in bufferpool");
         }
         if(hp.isDirty() != null){
-            HeapFile hf = (HeapFile)Database.getCatalog().myCatalog.get(pid.getTableId()).file;
+            HeapFile hf = (HeapFile)Database.getCatalog().getDatabaseFile(pid.getTableId());
             hf.writePage(hp);
             hp.markDirty(false, hp.isDirty());
         }
@@ -38,9 +38,13 @@ public class Catalog {
      * Creates a new, empty catalog.
      */
     public Map<Integer,Table> myCatalog;
+    //partitions of PartitionedFiles, by file id; these are not tables
+    //themselves, but their pages still have to be found
+    Map<Integer,DbFile> partitionFiles;
 
     public Catalog() {
         myCatalog = new HashMap<Integer,Table>();
+        partitionFiles = new HashMap<Integer,DbFile>();
     }
 
     /**
@@ -67,7 +71,10 @@ public class Catalog {
         //otherwise just add a new table
         if(replaced == 0)
             myCatalog.put(id,new_table);
-        
+        if(file instanceof PartitionedFile){
+            for(HeapFile hf : ((PartitionedFile)file).getPartitions())
+                partitionFiles.put(hf.getId(),hf);
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -110,6 +117,10 @@ public class Catalog {
         if(myTab != null){
             return myTab.file.getTupleDesc();
         }
+        DbFile partition = partitionFiles.get(tableid);
+        if(partition != null){
+            return partition.getTupleDesc();
+        }
         throw new NoSuchElementException("Table does not exist");
     }
 
@@ -117,13 +128,18 @@ public class Catalog {
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or the id of a partition of a
+     *     {@link PartitionedFile} table
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         Table myTab = myCatalog.get(tableid);
         if(myTab != null){
             return myTab.file;
         }
+        DbFile partition = partitionFiles.get(tableid);
+        if(partition != null){
+            return partition;
+        }
         throw new NoSuchElementException("Table does not exist");
     }
 
@@ -154,6 +170,7 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         myCatalog.clear();
+        partitionFiles.clear();
     }
     
     /**
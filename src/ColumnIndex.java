@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * ColumnIndex is the interface for secondary access structures over a single
+ * column of a {@link HeapFile}. The HeapFile tells each of its indexes about
+ * every tuple it inserts, so an index stays current without a rebuild.
+ * <p>
+ * Indexes only ever produce <i>candidates</i>: a deleted tuple or an aborted
+ * insert may leave a stale entry behind, so callers must re-check the real
+ * tuple (the planner keeps the {@link Filter} above any index access for this
+ * reason). Calling {@link #rebuild} drops stale entries.
+ * <p>
+ * Transactions insert into a file concurrently while others plan queries
+ * over it, so implementations must be safe to call from several threads.
+ */
+public interface ColumnIndex {
+
+    /**
+     * @return the index of the column this index is built on.
+     */
+    public int getField();
+
+    /**
+     * Record a tuple that was just stored in the file. The tuple's RecordId
+     * has already been set.
+     *
+     * @param t the tuple that was inserted
+     */
+    public void addTuple(Tuple t);
+
+    /**
+     * Return the positions (see {@link HeapFile#getPosition}) of the tuples
+     * that may satisfy <tt>field op operand</tt>.
+     *
+     * @return a bitmap of candidate positions, or null if this index cannot
+     *         narrow down predicates using op.
+     */
+    public CompressedBitmap lookup(Predicate.Op op, Field operand);
+
+    /**
+     * Throw away the current contents of the index and rebuild it from a scan
+     * of the file.
+     *
+     * @param tid the transaction to scan the file as a part of
+     */
+    public void rebuild(TransactionId tid)
+        throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * CompressedBitmap is a set of non-negative ints laid out the way a Roaring
+ * bitmap is: values are split on their high 16 bits into chunks, and each
+ * chunk stores its low 16 bits either as a sorted array (while the chunk is
+ * sparse) or as a 65536-bit bitmap (once it is dense). AND and OR work chunk
+ * by chunk, so combining two bitmaps only touches chunks present in both (for
+ * AND) or either (for OR) of them.
+ * <p>
+ * Bitmaps returned by {@link #and} and {@link #or} are new objects; neither
+ * argument is modified.
+ */
+public class CompressedBitmap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A chunk holding more than this many values is stored as a bitmap. */
+    static final int ARRAY_MAX = 4096;
+
+    /** Number of 64-bit words in a dense chunk. */
+    private static final int WORDS = 1024;
+
+    private TreeMap<Integer,Chunk> chunks = new TreeMap<Integer,Chunk>();
+
+    /**
+     * Add a value to the set.
+     *
+     * @param v the value to add; must not be negative.
+     */
+    public void add(int v) {
+        assert v >= 0;
+        Chunk c = chunks.get(v >>> 16);
+        if (c == null) {
+            c = new Chunk();
+            chunks.put(v >>> 16, c);
+        }
+        c.add((char) v);
+    }
+
+    /**
+     * @return true if v is in the set.
+     */
+    public boolean contains(int v) {
+        Chunk c = chunks.get(v >>> 16);
+        return c != null && c.contains((char) v);
+    }
+
+    /**
+     * @return the number of values in the set.
+     */
+    public int cardinality() {
+        int card = 0;
+        for (Chunk c : chunks.values())
+            card += c.card;
+        return card;
+    }
+
+    public boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * @return a new bitmap holding the values present in both this bitmap and
+     *         other.
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (Map.Entry<Integer,Chunk> e : chunks.entrySet()) {
+            Chunk o = other.chunks.get(e.getKey());
+            if (o == null)
+                continue;
+            Chunk c = e.getValue().and(o);
+            if (c.card > 0)
+                result.chunks.put(e.getKey(), c);
+        }
+        return result;
+    }
+
+    /**
+     * @return a new bitmap holding the values present in either this bitmap or
+     *         other.
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = copy();
+        for (Map.Entry<Integer,Chunk> e : other.chunks.entrySet()) {
+            Chunk mine = result.chunks.get(e.getKey());
+            if (mine == null)
+                result.chunks.put(e.getKey(), e.getValue().copy());
+            else
+                result.chunks.put(e.getKey(), mine.or(e.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * @return a new bitmap holding the same values as this one.
+     */
+    public CompressedBitmap copy() {
+        CompressedBitmap result = new CompressedBitmap();
+        for (Map.Entry<Integer,Chunk> e : chunks.entrySet())
+            result.chunks.put(e.getKey(), e.getValue().copy());
+        return result;
+    }
+
+    /**
+     * @return the values in this set, in ascending order.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int off = 0;
+        for (Map.Entry<Integer,Chunk> e : chunks.entrySet())
+            off = e.getValue().copyTo(e.getKey() << 16, result, off);
+        return result;
+    }
+
+    public String toString() {
+        return "CompressedBitmap(" + cardinality() + " values, "
+            + chunks.size() + " chunks)";
+    }
+
+    /**
+     * The values of one chunk. Exactly one of values and words is in use at
+     * any time.
+     */
+    static class Chunk implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Sorted low bits; used while the chunk is sparse. */
+        char[] values = new char[4];
+        /** One bit per low value; used once the chunk is dense. */
+        long[] words;
+        int card;
+
+        boolean contains(char v) {
+            if (words != null)
+                return (words[v >>> 6] & (1L << v)) != 0;
+            return Arrays.binarySearch(values, 0, card, v) >= 0;
+        }
+
+        void add(char v) {
+            if (words != null) {
+                long bit = 1L << v;
+                if ((words[v >>> 6] & bit) == 0) {
+                    words[v >>> 6] |= bit;
+                    card++;
+                }
+                return;
+            }
+            int pos = Arrays.binarySearch(values, 0, card, v);
+            if (pos >= 0)
+                return;
+            if (card == ARRAY_MAX) {
+                words = asWords();
+                values = null;
+                add(v);
+                return;
+            }
+            pos = -pos - 1;
+            if (card == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            System.arraycopy(values, pos, values, pos + 1, card - pos);
+            values[pos] = v;
+            card++;
+        }
+
+        Chunk and(Chunk o) {
+            if (words != null && o.words != null) {
+                long[] w = new long[WORDS];
+                for (int i = 0; i < WORDS; i++)
+                    w[i] = words[i] & o.words[i];
+                return fromWords(w);
+            }
+            // at least one side is sparse: probe the sparse side into the other
+            Chunk sparse = words == null ? this : o;
+            Chunk other = sparse == this ? o : this;
+            Chunk result = new Chunk();
+            result.values = new char[Math.max(1, sparse.card)];
+            for (int i = 0; i < sparse.card; i++) {
+                if (other.contains(sparse.values[i]))
+                    result.values[result.card++] = sparse.values[i];
+            }
+            return result;
+        }
+
+        Chunk or(Chunk o) {
+            if (words == null && o.words == null && card + o.card <= ARRAY_MAX) {
+                Chunk result = new Chunk();
+                result.values = new char[Math.max(1, card + o.card)];
+                int i = 0, j = 0;
+                while (i < card || j < o.card) {
+                    char v;
+                    if (j == o.card || (i < card && values[i] < o.values[j]))
+                        v = values[i++];
+                    else if (i == card || o.values[j] < values[i])
+                        v = o.values[j++];
+                    else {
+                        v = values[i++];
+                        j++;
+                    }
+                    result.values[result.card++] = v;
+                }
+                return result;
+            }
+            long[] w = asWords();
+            if (w == words)
+                w = w.clone();
+            long[] ow = o.asWords();
+            for (int i = 0; i < WORDS; i++)
+                w[i] |= ow[i];
+            return fromWords(w);
+        }
+
+        Chunk copy() {
+            Chunk c = new Chunk();
+            c.card = card;
+            c.values = values == null ? null : values.clone();
+            c.words = words == null ? null : words.clone();
+            return c;
+        }
+
+        /** @return the words of this chunk; not a copy if the chunk is dense. */
+        long[] asWords() {
+            if (words != null)
+                return words;
+            long[] w = new long[WORDS];
+            for (int i = 0; i < card; i++)
+                w[values[i] >>> 6] |= 1L << values[i];
+            return w;
+        }
+
+        /** Build a chunk from a bitmap, going back to an array if it is sparse. */
+        static Chunk fromWords(long[] w) {
+            Chunk c = new Chunk();
+            for (long x : w)
+                c.card += Long.bitCount(x);
+            if (c.card > ARRAY_MAX) {
+                c.values = null;
+                c.words = w;
+                return c;
+            }
+            c.values = new char[Math.max(1, c.card)];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long x = w[i];
+                while (x != 0) {
+                    c.values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(x));
+                    x &= x - 1;
+                }
+            }
+            return c;
+        }
+
+        int copyTo(int high, int[] dest, int off) {
+            if (words == null) {
+                for (int i = 0; i < card; i++)
+                    dest[off++] = high | values[i];
+                return off;
+            }
+            for (int i = 0; i < WORDS; i++) {
+                long x = words[i];
+                while (x != 0) {
+                    dest[off++] = high | ((i << 6) + Long.numberOfTrailingZeros(x));
+                    x &= x - 1;
+                }
+            }
+            return off;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * Exchange is the base class of the operators that move rows between the
+ * threads a parallel plan runs on. Subtrees below an exchange run on worker
+ * threads of their own; the exchange hands their output to whoever reads it.
+ * <p>
+ * There are three kinds: {@link Gather} merges the output of several subtrees
+ * into one stream, {@link HashRepartition} redistributes the output of
+ * several subtrees by the hash of a column, and {@link Broadcast} sends all
+ * of it to every consumer.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @return the number of worker threads the planner splits a parallel
+     *         part of a plan across.
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of worker threads the planner splits a parallel part of
+     * a plan across; 1 turns parallel plans off.
+     */
+    public static void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        parallelism = n;
+    }
+
+    String myName;
+
+    protected Exchange(String name) {
+        myName = name;
+    }
+
+    /**
+     * @return the name this exchange is shown with in query plans.
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * Rethrow a failure from a worker thread in the thread reading the
+     * exchange.
+     */
+    static void rethrow(Throwable t) throws DbException, TransactionAbortedException {
+        if (t instanceof DbException)
+            throw (DbException) t;
+        if (t instanceof TransactionAbortedException)
+            throw new TransactionAbortedException();
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        DbException e = new DbException("exchange worker failed: " + t);
+        e.initCause(t);
+        throw e;
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * ExchangeConsumer is the end of an {@link Exchange} that the parent operator
+ * reads from. Rows arrive from worker threads in batches, so consumers are
+ * read through {@link #nextBatch}; reading them a tuple at a time unpacks
+ * those batches.
+ */
+public abstract class ExchangeConsumer extends Exchange implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    transient TupleBatch cur;
+    transient int row;
+
+    protected ExchangeConsumer(String name) {
+        super(name);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        cur = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        cur = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cur = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (cur == null || row == cur.size()) {
+            cur = nextBatch();
+            row = 0;
+            if (cur == null)
+                return null;
+        }
+        return cur.getTuple(row++);
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        throw new UnsupportedOperationException("the inputs of an exchange are fixed");
+    }
+}
@@ -0,0 +1,411 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * ExchangeProducer is the sending end of an exchange that has several
+ * consumers, such as {@link HashRepartition} and {@link Broadcast}. It runs
+ * each of its inputs on a worker thread and routes every batch they produce
+ * to one or more of its outputs, each of which is read by a different
+ * parallel subtree through {@link #getOutput}.
+ * <p>
+ * Each output holds a few batches waiting to be read; a worker that has a
+ * batch for a full output waits until its consumer catches up, so the
+ * exchange never holds more than a few batches per output. Rewinding an
+ * output starts the exchange over, which assumes every output is rewound
+ * before any of them is read again, as {@link Gather#rewind} does.
+ * <p>
+ * An exchange whose outputs are rewound many times, as the inner side of a
+ * nested loops join is, can instead keep everything it sends until it is
+ * closed (see {@link #setRewindable}); its outputs then replay what they
+ * were sent and never make the workers wait.
+ * <p>
+ * The workers start when the first output is opened and stop when the last
+ * one is closed. An output whose consumer is done with it, because it was
+ * closed or because the subtree reading it has returned all of its rows,
+ * drops what it is sent, so that a consumer that stops early (such as a join
+ * with an empty side) doesn't stall the others.
+ */
+public abstract class ExchangeProducer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Batches each output may have waiting to be read. */
+    static final int BATCHES_PER_OUTPUT = 4;
+
+    String myName;
+    DbIterator[] myInputs;
+    Output[] myOutputs;
+    boolean myRewindable;
+
+    transient ArrayList<ArrayDeque<TupleBatch>> queued;
+    transient ArrayList<ArrayList<TupleBatch>> sent;
+    transient boolean[] dropped;
+    transient int producing;
+    transient Throwable error;
+    transient Thread[] workers;
+    transient volatile boolean stopped;
+    transient int opened;
+    transient int generation;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            the name outputs are shown with in query plans
+     * @param inputs
+     *            the subtrees to run in parallel; all must have the same
+     *            TupleDesc.
+     * @param consumers
+     *            the number of outputs
+     */
+    protected ExchangeProducer(String name, DbIterator[] inputs, int consumers) {
+        if (inputs.length == 0)
+            throw new IllegalArgumentException("no inputs");
+        myName = name;
+        myInputs = inputs;
+        myOutputs = new Output[consumers];
+        for (int i = 0; i < consumers; i++)
+            myOutputs[i] = new Output(name + "[" + i + "/" + consumers + "]", i);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myInputs[0].getTupleDesc();
+    }
+
+    /**
+     * @return the number of outputs of this exchange.
+     */
+    public int numOutputs() {
+        return myOutputs.length;
+    }
+
+    /**
+     * @return the i-th output of this exchange, to be read by the i-th
+     *         consumer.
+     */
+    public ExchangeConsumer getOutput(int i) {
+        return myOutputs[i];
+    }
+
+    /**
+     * Keep every batch sent to the outputs until the exchange is closed, so
+     * that rewinding an output replays them instead of starting the exchange
+     * over. Must be set before the outputs are opened.
+     */
+    public void setRewindable(boolean rewindable) {
+        myRewindable = rewindable;
+    }
+
+    public boolean isRewindable() {
+        return myRewindable;
+    }
+
+    /**
+     * Send the rows of a batch to the outputs they belong to. Called by the
+     * worker threads, each with an array of its own of one batch per output
+     * that route may use to collect rows; the worker sends whatever is left
+     * in them once its input is done.
+     *
+     * @param b a batch read from an input, owned by the caller
+     * @param pending the calling worker's batches in progress, one per output
+     */
+    protected abstract void route(TupleBatch b, TupleBatch[] pending);
+
+    /**
+     * Make a batch available to one of the outputs, waiting for room in it
+     * unless the exchange is rewindable. The batch must not be changed
+     * afterwards, and unless the exchange is rewindable it is handed to the
+     * consumer as is, so it must not be sent to another output too.
+     */
+    protected synchronized void send(int output, TupleBatch b) {
+        if (myRewindable) {
+            sent.get(output).add(b);
+            notifyAll();
+            return;
+        }
+        ArrayDeque<TupleBatch> q = queued.get(output);
+        while (q.size() >= BATCHES_PER_OUTPUT && !dropped[output] && !stopped) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // interrupted by release or restart, which set stopped
+                return;
+            }
+        }
+        if (dropped[output] || stopped)
+            return;
+        q.add(b);
+        notifyAll();
+    }
+
+    private synchronized void finished(Throwable t) {
+        if (t != null && error == null)
+            error = t;
+        producing--;
+        notifyAll();
+    }
+
+    /**
+     * Stop waiting for an output to make room and drop what it is sent,
+     * until the exchange starts over.
+     */
+    synchronized void drop(int output) {
+        if (dropped == null)
+            return;
+        dropped[output] = true;
+        if (!myRewindable)
+            queued.get(output).clear();
+        notifyAll();
+    }
+
+    /**
+     * Tell the exchanges a subtree reads that it is done with them: the
+     * subtree has returned all of its rows, and won't read any more until it
+     * is rewound. Called by the threads that run subtrees, since an operator
+     * may finish without reading all of an input.
+     */
+    static void doneReading(DbIterator plan) {
+        if (plan instanceof Output) {
+            Output out = (Output) plan;
+            out.producer().drop(out.myIndex);
+        } else if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null)
+                    doneReading(child);
+            }
+        }
+    }
+
+    /**
+     * @return the next batch for an output: the index-th batch sent to it if
+     *         the exchange is rewindable, otherwise the oldest one it hasn't
+     *         read; or null if the inputs are done and there is none.
+     */
+    synchronized TupleBatch get(int output, int index)
+            throws DbException, TransactionAbortedException {
+        while (!ready(output, index) && producing > 0 && error == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while reading " + myName);
+            }
+        }
+        if (error != null)
+            Exchange.rethrow(error);
+        if (myRewindable) {
+            ArrayList<TupleBatch> batches = sent.get(output);
+            return index < batches.size() ? batches.get(index) : null;
+        }
+        TupleBatch b = queued.get(output).poll();
+        if (b != null)
+            notifyAll();
+        return b;
+    }
+
+    private boolean ready(int output, int index) {
+        if (myRewindable)
+            return index < sent.get(output).size();
+        return !queued.get(output).isEmpty();
+    }
+
+    synchronized void acquire() throws DbException, TransactionAbortedException {
+        if (opened++ > 0)
+            return;
+        for (DbIterator in : myInputs)
+            in.open();
+        start();
+    }
+
+    /**
+     * Clear the outputs and start one worker per input. Called with the
+     * workers stopped and the inputs open at their first row.
+     */
+    private synchronized void start() {
+        sent = null;
+        queued = null;
+        if (myRewindable) {
+            sent = new ArrayList<ArrayList<TupleBatch>>();
+            for (int i = 0; i < myOutputs.length; i++)
+                sent.add(new ArrayList<TupleBatch>());
+        } else {
+            queued = new ArrayList<ArrayDeque<TupleBatch>>();
+            for (int i = 0; i < myOutputs.length; i++)
+                queued.add(new ArrayDeque<TupleBatch>());
+        }
+        dropped = new boolean[myOutputs.length];
+        error = null;
+        generation++;
+        producing = myInputs.length;
+        stopped = false;
+        workers = new Thread[myInputs.length];
+        for (int i = 0; i < myInputs.length; i++) {
+            final DbIterator input = myInputs[i];
+            final BatchIterator in = BatchAdapter.of(input);
+            workers[i] = new Thread(myName + "-" + i) {
+                public void run() {
+                    TupleBatch[] pending = new TupleBatch[myOutputs.length];
+                    Throwable failure = null;
+                    try {
+                        TupleBatch b;
+                        while (!stopped && (b = in.nextBatch()) != null)
+                            route(b, pending);
+                        if (!stopped)
+                            doneReading(input);
+                        for (int j = 0; j < pending.length; j++) {
+                            if (pending[j] != null && !pending[j].isEmpty())
+                                send(j, pending[j]);
+                        }
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                    finished(failure);
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stop the workers and wait for them to finish, so that the inputs can
+     * be used again from this thread.
+     */
+    private void stop() {
+        Thread[] toStop;
+        synchronized (this) {
+            toStop = workers;
+            workers = null;
+            stopped = true;
+            notifyAll();
+        }
+        if (toStop == null)
+            return;
+        for (Thread w : toStop)
+            w.interrupt();
+        for (Thread w : toStop) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start the exchange over for an output that is rewound, unless another
+     * output has already done so since this one was last started.
+     */
+    void restart(Output out) throws DbException, TransactionAbortedException {
+        synchronized (this) {
+            if (out.myGeneration != generation) {
+                out.myGeneration = generation;
+                return;
+            }
+        }
+        stop();
+        for (DbIterator in : myInputs)
+            in.rewind();
+        start();
+        synchronized (this) {
+            out.myGeneration = generation;
+        }
+    }
+
+    void release() {
+        synchronized (this) {
+            if (opened == 0 || --opened > 0)
+                return;
+        }
+        stop();
+        for (DbIterator in : myInputs)
+            in.close();
+        synchronized (this) {
+            sent = null;
+            queued = null;
+            dropped = null;
+        }
+    }
+
+    /**
+     * One output of the exchange; reads the batches sent to it, in the
+     * order they were sent.
+     */
+    public class Output extends ExchangeConsumer {
+
+        private static final long serialVersionUID = 1L;
+
+        final int myIndex;
+        transient int next;
+        transient boolean acquired;
+        transient int myGeneration;
+
+        Output(String name, int index) {
+            super(name);
+            myIndex = index;
+        }
+
+        ExchangeProducer producer() {
+            return ExchangeProducer.this;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return ExchangeProducer.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            acquire();
+            acquired = true;
+            synchronized (ExchangeProducer.this) {
+                myGeneration = generation;
+            }
+            next = 0;
+            super.open();
+        }
+
+        /**
+         * Start over from the first batch sent to this output: replay the
+         * batches of a rewindable exchange, otherwise run the exchange again.
+         */
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (!acquired)
+                throw new IllegalStateException("exchange output not open");
+            if (!myRewindable)
+                restart(this);
+            next = 0;
+            super.rewind();
+        }
+
+        public void close() {
+            if (acquired) {
+                drop(myIndex);
+                release();
+            }
+            acquired = false;
+            super.close();
+        }
+
+        public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+            if (!acquired)
+                throw new IllegalStateException("exchange output not open");
+            TupleBatch b = get(myIndex, next);
+            if (b == null)
+                return null;
+            next++;
+            // a rewindable exchange keeps the batch for rewinds, so hand out
+            // a copy the caller may change
+            return myRewindable ? b.copy() : b;
+        }
+
+        /**
+         * The inputs of the whole exchange, which this output shares with
+         * the others.
+         */
+        @Override
+        public DbIterator[] getChildren() {
+            return myInputs;
+        }
+    }
+}
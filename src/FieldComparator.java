@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Orders Fields by their compare method.
+ */
+class FieldComparator implements Comparator<Field> {
+    boolean asc;
+
+    public FieldComparator(boolean asc) {
+        this.asc = asc;
+    }
+
+    public int compare(Field t1, Field t2) {
+        if (t1 instanceof IntField && t2 instanceof IntField) {
+            int c = Integer.compare(((IntField) t1).getValue(), ((IntField) t2).getValue());
+            return asc ? c : -c;
+        }
+        if (t1 instanceof StringField && t2 instanceof StringField) {
+            int c = ((StringField) t1).getValue().compareTo(((StringField) t2).getValue());
+            return asc ? c : -c;
+        }
+        if (t1.compare(Predicate.Op.EQUALS, t2))
+            return 0;
+        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+            return asc ? 1 : -1;
+        else
+            return asc ? -1 : 1;
+    }
+}
@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -21,6 +21,8 @@ public class Filter extends Operator {
 
      Predicate myPredicate;
      DbIterator myDbIterator;
+     transient BatchIterator batchChild;
+     transient PredicateCompiler.TupleTest test;
 
     public Filter(Predicate p, DbIterator child) {
         myPredicate = p;
@@ -39,6 +41,7 @@ public class Filter extends Operator {
             TransactionAbortedException {
 
             myDbIterator.open();
+            test = myPredicate.compile();
             super.open();
 
     }
@@ -67,12 +70,35 @@ public class Filter extends Operator {
         while(myDbIterator.hasNext()){
             tmpTuple = myDbIterator.next();
             //if it passes the predicate, return the tuple
-            if(myPredicate.filter(tmpTuple))
+            if(test.test(tmpTuple))
                 return tmpTuple;        
         }
         return null;
     }
 
+    /**
+     * Reads batches from the child and keeps the rows of each that pass the
+     * predicate (see {@link Predicate#filter(TupleBatch, boolean[])}).
+     * 
+     * @return The next non-empty batch of rows that pass the filter, or null
+     *         if there are no more
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(batchChild == null)
+            batchChild = BatchAdapter.of(myDbIterator);
+        TupleBatch batch;
+        boolean[] keep = null;
+        while((batch = batchChild.nextBatch()) != null){
+            if(keep == null || keep.length < batch.size())
+                keep = new boolean[batch.size()];
+            if(myPredicate.filter(batch, keep) == 0)
+                continue;
+            batch.retain(keep);
+            return batch;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         DbIterator[] dbIterator = new DbIterator[1];
@@ -83,6 +109,7 @@ public class Filter extends Operator {
     @Override
     public void setChildren(DbIterator[] children) {
         myDbIterator = children[0];
+        batchChild = null;
     }
 
 }
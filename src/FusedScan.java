@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * FusedScan is a sequential scan of a {@link HeapFile} with a conjunction of
+ * filters fused into it. Filters over a SeqScan hand every tuple up through
+ * one iterator call per Filter; a FusedScan instead runs a single loop over
+ * the slots of each page, tests the tuples in place with the filters'
+ * compiled predicates (see {@link PredicateCompiler}), and copies only the
+ * tuples that pass into the batches it returns.
+ * <p>
+ * Filters comparing an int field to a constant are tested on the field's
+ * bytes in the page (see {@link HeapPage#getIntField}), before the tuple is
+ * decoded, so a tuple that fails them is never built.
+ */
+public class FusedScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    List<Predicate> myFilters;
+    //pages [myFirstPage, myEndPage) are read; myEndPage < 0 reads to the end
+    int myFirstPage = 0;
+    int myEndPage = -1;
+
+    /**
+     * Creates a scan of a table that returns only the tuples satisfying
+     * every one of a list of filters.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan})
+     * @param filters
+     *            the predicates the returned tuples satisfy, over fields of
+     *            the table
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> filters) {
+        super(tid, tableid, tableAlias);
+        myFilters = new ArrayList<Predicate>(filters);
+    }
+
+    /**
+     * Creates a filtered scan of pages [firstPage, endPage) of a table, for
+     * one morsel of a {@link ParallelScan}.
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> filters, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, filters);
+        myFirstPage = firstPage;
+        myEndPage = endPage;
+    }
+
+    public List<Predicate> getFilters() {
+        return myFilters;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(myTableID);
+        db_it = new FilteredIterator(myTID, hf, myFilters, myFirstPage, myEndPage);
+        db_it.open();
+    }
+
+    /**
+     * Drop the tuples whose field can't be in a runtime filter, testing int
+     * fields in place, from now until the scan is closed.
+     *
+     * @return false if the scan isn't open
+     */
+    public boolean setRuntimeFilter(int field, RuntimeFilter f) {
+        if (db_it == null)
+            return false;
+        ((FilteredIterator) db_it).setRuntimeFilter(field, f);
+        return true;
+    }
+
+    /**
+     * Returns the next batch of up to {@link TupleBatch#DEFAULT_SIZE} tuples
+     * of the table that pass the filters, read straight from the page loop.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (db_it == null)
+            throw new IllegalStateException("FusedScan not open");
+        FilteredIterator it = (FilteredIterator) db_it;
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        Tuple t;
+        while (!batch.isFull() && (t = it.readNext()) != null)
+            batch.addTuple(t);
+        return batch.isEmpty() ? null : batch;
+    }
+
+    /**
+     * Iterates over the tuples of a HeapFile that pass a list of filters.
+     */
+    static class FilteredIterator extends AbstractDbFileIterator {
+
+        TransactionId myTID;
+        HeapFile myHeapFile;
+        // filters on int fields, tested on the page's bytes: the field, the
+        // compiled operator and the constant of each
+        int[] intFields;
+        PredicateCompiler.IntTest[] intTests;
+        int[] intValues;
+        // the other filters, tested on decoded tuples
+        PredicateCompiler.TupleTest[] tests;
+        // a join's runtime filter on a field, or null
+        int runtimeField;
+        RuntimeFilter runtimeFilter;
+        boolean runtimeInPlace;
+        int firstPage;
+        int endPage;
+        int numPages;
+        int pgNo;
+        int slot;
+        HeapPage curPage;
+
+        FilteredIterator(TransactionId tid, HeapFile hf, List<Predicate> filters,
+                int firstPage, int endPage) {
+            myTID = tid;
+            myHeapFile = hf;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            TupleDesc td = hf.getTupleDesc();
+            ArrayList<Predicate> onInts = new ArrayList<Predicate>();
+            ArrayList<PredicateCompiler.TupleTest> others = new ArrayList<PredicateCompiler.TupleTest>();
+            for (Predicate p : filters) {
+                if (td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField)
+                    onInts.add(p);
+                else
+                    others.add(p.compile());
+            }
+            intFields = new int[onInts.size()];
+            intTests = new PredicateCompiler.IntTest[onInts.size()];
+            intValues = new int[onInts.size()];
+            for (int i = 0; i < intFields.length; i++) {
+                Predicate p = onInts.get(i);
+                intFields[i] = p.getField();
+                intTests[i] = PredicateCompiler.compile(p.getOp());
+                intValues[i] = ((IntField) p.getOperand()).getValue();
+            }
+            tests = others.toArray(new PredicateCompiler.TupleTest[0]);
+        }
+
+        void setRuntimeFilter(int field, RuntimeFilter f) {
+            runtimeField = field;
+            runtimeFilter = f;
+            runtimeInPlace = myHeapFile.getTupleDesc().getFieldType(field) == Type.INT_TYPE;
+        }
+
+        public void open() {
+            numPages = myHeapFile.numPages();
+            if (endPage >= 0)
+                numPages = Math.min(numPages, endPage);
+            pgNo = firstPage;
+            slot = 0;
+            curPage = null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            curPage = null;
+            pgNo = numPages;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (curPage == null || slot >= curPage.numSlots) {
+                    if (pgNo >= numPages)
+                        return null;
+                    PageId pid = new HeapPageId(myHeapFile.getId(), pgNo++);
+                    curPage = (HeapPage) Database.getBufferPool().getPage(myTID, pid, Permissions.READ_ONLY);
+                    slot = 0;
+                }
+                int s = slot++;
+                if (!curPage.isSlotUsed(s) || !passesInPlace(curPage, s))
+                    continue;
+                Tuple t = curPage.getTuple(s);
+                if (passes(t))
+                    return t;
+            }
+        }
+
+        private boolean passesInPlace(HeapPage page, int s) {
+            for (int i = 0; i < intFields.length; i++) {
+                if (!intTests[i].test(page.getIntField(s, intFields[i]), intValues[i]))
+                    return false;
+            }
+            return runtimeFilter == null || !runtimeInPlace
+                || runtimeFilter.mightContain(page.getIntField(s, runtimeField));
+        }
+
+        private boolean passes(Tuple t) {
+            for (PredicateCompiler.TupleTest test : tests) {
+                if (!test.test(t))
+                    return false;
+            }
+            return runtimeFilter == null || runtimeInPlace
+                || runtimeFilter.mightContain(t.getField(runtimeField));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Gather is an {@link Exchange} that runs each of its children on a worker
+ * thread of its own and returns their rows, in no particular order, as one
+ * stream. Workers hand batches over through a bounded queue, so a slow reader
+ * holds back the workers instead of letting their output pile up.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Batches each worker may have waiting in the queue. */
+    static final int BATCHES_PER_CHILD = 2;
+
+    /** Put on the queue by a worker that has no more rows. */
+    private static final Object DONE = new Object();
+
+    DbIterator[] myChildren;
+    transient BlockingQueue<Object> queue;
+    transient Thread[] workers;
+    transient volatile boolean stopped;
+    transient int running;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the subtrees to run in parallel; all must have the same
+     *            TupleDesc.
+     */
+    public Gather(DbIterator[] children) {
+        super("Gather(" + children.length + ")");
+        if (children.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        myChildren = children;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myChildren[0].getTupleDesc();
+    }
+
+    /**
+     * Opens the children in the calling thread, so that errors opening them
+     * are reported right away, and starts one worker per child.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        for (DbIterator child : myChildren)
+            child.open();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        queue = new ArrayBlockingQueue<Object>(BATCHES_PER_CHILD * myChildren.length);
+        stopped = false;
+        running = myChildren.length;
+        workers = new Thread[myChildren.length];
+        for (int i = 0; i < myChildren.length; i++) {
+            final DbIterator child = myChildren[i];
+            final BatchIterator in = BatchAdapter.of(child);
+            workers[i] = new Thread(getName() + "-" + i) {
+                public void run() {
+                    Object last = DONE;
+                    try {
+                        TupleBatch b;
+                        while (!stopped && (b = in.nextBatch()) != null)
+                            queue.put(b);
+                        if (!stopped)
+                            ExchangeProducer.doneReading(child);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Throwable t) {
+                        last = t;
+                    }
+                    try {
+                        queue.put(last);
+                    } catch (InterruptedException e) {
+                        // stopped while the queue was full; nobody is reading
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stop the workers and wait for them to finish, so that the children can
+     * be used again from this thread.
+     */
+    private void stop() {
+        if (workers == null)
+            return;
+        stopped = true;
+        for (Thread w : workers)
+            w.interrupt();
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers = null;
+        queue = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            throw new IllegalStateException("Gather not open");
+        while (running > 0) {
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while reading " + getName());
+            }
+            if (o instanceof TupleBatch)
+                return (TupleBatch) o;
+            running--;
+            if (o != DONE) {
+                stop();
+                rethrow((Throwable) o);
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        for (DbIterator child : myChildren)
+            child.rewind();
+        super.rewind();
+        start();
+    }
+
+    public void close() {
+        stop();
+        for (DbIterator child : myChildren)
+            child.close();
+        super.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return myChildren;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        myChildren = children;
+    }
+}
@@ -3,16 +3,16 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * HashEquiJoin implements an equality join by hashing child1 and probing
+ * it with the rows of child2, spilling both to disk when child1 is too large
+ * to hold in memory.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -50,32 +50,34 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /**
+     * Default number of rows of child1 kept in memory at once. A larger
+     * child1 is partitioned to disk, see {@link #nextBatch}.
+     */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
-            }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
+    /** Number of partitions both inputs are split into when child1 spills. */
+    public final static int FANOUT = 16;
 
+    private int memoryBudget = MAP_SIZE;
+
+    /**
+     * Set the number of rows of child1 this join keeps in memory at once.
+     */
+    public void setMemoryBudget(int rows) {
+        memoryBudget = Math.max(1, rows);
     }
 
+    // Bloom filter over the join column of child2's table, if it has one
+    transient private BloomFilterIndex probeFilter = null;
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        probeFilter = BloomFilterIndex.find(child2, pred.getField2());
+        // child1 is read by whichever of fetchNext and nextBatch is called first
+        built = false;
         super.open();
     }
 
@@ -83,24 +85,36 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private void reset() {
+        built = false;
+        build = null;
+        heads = null;
+        probe = null;
+        matchRow = -1;
+        out = null;
+        if (buildSpill != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                buildSpill[i].delete();
+                probeSpill[i].delete();
+            }
+        }
+        buildSpill = null;
+        probeSpill = null;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -110,53 +124,246 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * <p>
+     * Tuples are taken from the batches {@link #nextBatch} produces.
      * 
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (out == null || outRow == out.size()) {
+            out = nextBatch();
+            outRow = 0;
+            if (out == null)
+                return null;
+        }
+        return out.getTuple(outRow++);
+    }
+
+    transient private TupleBatch out;
+    transient private int outRow;
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    // The in-memory build table holds up to memoryBudget rows of child1 in
+    // one large batch; heads maps a join key to the last row with that key,
+    // and chain[r] is the row before r with the same key, or -1.
+    transient private boolean built = false;
+    transient private BatchIterator batch2;
+    transient private TupleBatch build;
+    transient private HashMap<Object, Integer> heads;
+    transient private int[] chain;
+    transient private TupleBatch probe;
+    transient private int probeRow;
+    transient private int matchRow = -1;
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    // Once child1 outgrows the budget, rows are split into FANOUT partitions
+    // by the hash of their key. Partition 0 stays in memory unless it also
+    // outgrows the budget; the rows of the others, from both inputs, are
+    // written to spill files and joined partition by partition afterwards.
+    transient private SpillFile[] buildSpill, probeSpill;
+    transient private boolean spillAll;
+    /** The partition being joined from disk, or -1 while child2 is read. */
+    transient private int part;
 
+    /**
+     * @return the join key of a row, as an Integer for int columns so that
+     *         no Field has to be created.
+     */
+    private static Object keyOf(TupleBatch b, int field, int row) {
+        if (b.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return b.getIntColumn(field)[row];
+        return b.getField(row, field);
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+    /**
+     * @return the partition a join key belongs in. The bits used are not
+     *         those HashMap uses, so keys still spread out within a
+     *         partition.
+     */
+    private static int partitionOf(Object key) {
+        long h = BloomFilter.mix(key.hashCode());
+        return (int) ((h >>> 40) % FANOUT);
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+    private boolean inMemory(Object key) {
+        return buildSpill == null || (!spillAll && partitionOf(key) == 0);
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+    private void clearTable() {
+        build = new TupleBatch(child1.getTupleDesc());
+        heads = new HashMap<Object, Integer>();
+    }
 
-            return processList();
+    private void insert(TupleBatch b, int i, Object key) {
+        int row = build.size();
+        build.addRow(b, i);
+        if (chain == null || chain.length <= row)
+            chain = Arrays.copyOf(chain == null ? new int[0] : chain, Math.max(1024, row * 2));
+        Integer prev = heads.put(key, row);
+        chain[row] = prev == null ? -1 : prev;
+    }
 
+    /**
+     * Move the rows of the build table that no longer belong in memory to
+     * their partitions' spill files.
+     */
+    private void spill() throws DbException {
+        if (buildSpill == null) {
+            buildSpill = new SpillFile[FANOUT];
+            probeSpill = new SpillFile[FANOUT];
+            for (int i = 0; i < FANOUT; i++) {
+                buildSpill[i] = new SpillFile(child1.getTupleDesc());
+                probeSpill[i] = new SpillFile(child2.getTupleDesc());
+            }
+        } else {
+            spillAll = true;
         }
+        TupleBatch old = build;
+        clearTable();
+        for (int i = 0; i < old.size(); i++) {
+            Object key = keyOf(old, pred.getField1(), i);
+            if (inMemory(key))
+                insert(old, i, key);
+            else
+                buildSpill[partitionOf(key)].add(old, i);
+        }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Read all of child1 into the build table, spilling partitions to disk
+     * once it outgrows the memory budget, and hand a {@link RuntimeFilter}
+     * of its keys down to child2.
+     */
+    private void loadBuild() throws DbException, TransactionAbortedException {
+        BatchIterator batch1 = BatchAdapter.of(child1);
+        clearTable();
+        spillAll = false;
+        RuntimeFilter keys = new RuntimeFilter();
+        TupleBatch b;
+        while ((b = batch1.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++) {
+                // a key child2's table has never held can't find a match
+                if (probeFilter != null
+                        && !probeFilter.mightContain(b.getField(i, pred.getField1())))
+                    continue;
+                Object key = keyOf(b, pred.getField1(), i);
+                keys.add(key);
+                if (!inMemory(key)) {
+                    buildSpill[partitionOf(key)].add(b, i);
+                    continue;
+                }
+                insert(b, i, key);
+                if (build.size() > memoryBudget && !spillAll)
+                    spill();
+            }
+        }
+        // let the scan under child2 drop the rows that can't find a match
+        keys.finish();
+        RuntimeFilter.publish(child2, pred.getField2(), keys);
+    }
+
+    /**
+     * Load the next rows of a spilled build partition into the build table,
+     * at most memoryBudget of them.
+     * @return false if the partition had no rows left.
+     */
+    private boolean loadPartition(SpillFile f) throws DbException {
+        clearTable();
+        TupleBatch b;
+        while (build.size() < memoryBudget
+               && (b = f.next(memoryBudget - build.size())) != null) {
+            for (int i = 0; i < b.size(); i++)
+                insert(b, i, keyOf(b, pred.getField1(), i));
+        }
+        return build.size() > 0;
+    }
+
+    /**
+     * Move on to the next spilled partition that can produce matches.
+     * @return false if there is none.
+     */
+    private boolean nextPartition() throws DbException {
+        if (part >= 0) {
+            buildSpill[part].delete();
+            probeSpill[part].delete();
+        }
+        while (++part < FANOUT) {
+            if (buildSpill[part].isEmpty() || probeSpill[part].isEmpty())
+                continue;
+            buildSpill[part].rewind();
+            probeSpill[part].rewind();
+            if (loadPartition(buildSpill[part]))
+                return true;
         }
+        return false;
+    }
+
+    /**
+     * @return the next batch of probe rows: first those of child2, then
+     *         those spilled to the partition being joined.
+     */
+    private TupleBatch nextProbe() throws DbException, TransactionAbortedException {
+        if (part < 0)
+            return batch2.nextBatch();
+        return probeSpill[part].next(TupleBatch.DEFAULT_SIZE);
+    }
 
-        return null;
+    /**
+     * Batch-at-a-time version of {@link #fetchNext}. This is a hybrid hash
+     * join: if child1 fits in the memory budget, it is loaded into a hash
+     * table that each row of child2 probes. Otherwise both inputs are split
+     * into FANOUT partitions on the hash of the join key, the first of which
+     * is joined in memory as child2 is read, and the others are written to
+     * disk and joined one at a time afterwards. Each child is read once and
+     * each spilled row is read back once, unless a partition of child1 is
+     * itself larger than the budget, in which case it is loaded a budget's
+     * worth at a time and its probe rows are read once per load.
+     * <p>
+     * Matches of one probe row come out in no particular order.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!built) {
+            built = true;
+            batch2 = BatchAdapter.of(child2);
+            probe = null;
+            matchRow = -1;
+            part = -1;
+            loadBuild();
+            if (build.size() == 0 && buildSpill == null)
+                build = null;
+        }
+        TupleBatch result = new TupleBatch(comboTD);
+        while (build != null && !result.isFull()) {
+            if (matchRow >= 0) {
+                result.addJoinedRow(build, matchRow, probe, probeRow);
+                matchRow = chain[matchRow];
+                continue;
+            }
+            if (probe == null || ++probeRow >= probe.size()) {
+                probe = nextProbe();
+                probeRow = 0;
+                if (probe == null) {
+                    // the probe rows are done: load the rest of this
+                    // partition, or move on to the next one
+                    if (part >= 0 && loadPartition(buildSpill[part])) {
+                        probeSpill[part].rewind();
+                    } else if (buildSpill == null || !nextPartition()) {
+                        build = null;
+                    }
+                    continue;
+                }
+            }
+            Object key = keyOf(probe, pred.getField2(), probeRow);
+            if (part < 0 && !inMemory(key)) {
+                SpillFile f = probeSpill[partitionOf(key)];
+                // no row of child1 has a key in an empty partition
+                if (!buildSpill[partitionOf(key)].isEmpty())
+                    f.add(probe, probeRow);
+                continue;
+            }
+            Integer head = heads.get(key);
+            matchRow = head == null ? -1 : head;
+        }
+        return result.isEmpty() ? null : result;
     }
 
     @Override
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * HashRepartition is an exchange that redistributes the rows of its inputs
+ * across its outputs by the hash of one column, so that rows with equal
+ * values in that column all go to the same output. Running an equality join
+ * or a grouped aggregate on each output then gives the same result, in
+ * parallel, as running it once over everything.
+ */
+public class HashRepartition extends ExchangeProducer {
+
+    private static final long serialVersionUID = 1L;
+
+    final int myField;
+
+    /**
+     * Constructor.
+     *
+     * @param inputs
+     *            the subtrees to run in parallel; all must have the same
+     *            TupleDesc.
+     * @param field
+     *            the column to partition the rows on
+     * @param consumers
+     *            the number of outputs
+     */
+    public HashRepartition(DbIterator[] inputs, int field, int consumers) {
+        super("HashRepartition(" + inputs[0].getTupleDesc().getFieldName(field) + ")",
+              inputs, consumers);
+        myField = field;
+    }
+
+    public int getField() {
+        return myField;
+    }
+
+    /**
+     * @return the output a row with value f in the partitioning column is
+     *         sent to.
+     */
+    public int outputFor(Field f) {
+        if (f.getType() == Type.INT_TYPE)
+            return outputFor(((IntField) f).getValue());
+        return (int) ((BloomFilter.mix(f.hashCode()) >>> 1) % numOutputs());
+    }
+
+    int outputFor(int v) {
+        return (int) ((BloomFilter.mix(v) >>> 1) % numOutputs());
+    }
+
+    protected void route(TupleBatch b, TupleBatch[] pending) {
+        int n = b.size();
+        int[] col = b.ints[myField];
+        for (int row = 0; row < n; row++) {
+            int out = col != null ? outputFor(col[row]) : outputFor(b.fields[myField][row]);
+            if (pending[out] == null)
+                pending[out] = new TupleBatch(b.getTupleDesc());
+            pending[out].addRow(b, row);
+            if (pending[out].isFull()) {
+                send(out, pending[out]);
+                pending[out] = null;
+            }
+        }
+    }
+}
@@ -26,9 +26,36 @@ public class HeapFile implements DbFile {
 
     public TupleDesc myTD;
     int addedPages = 0;
+    int pagesPerSegment;
+    // the highest segment file that exists, or -1 until it has been looked
+    // up; writePage raises it when it creates a segment
+    private volatile int lastSegment = -1;
+    ArrayList<ColumnIndex> indexes;
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a heap file split into segment files of a fixed number of
+     * pages each. The first segment is f itself, and segment i after it is
+     * stored next to f, in a file named f's name followed by "." and i.
+     * Keeping segments small keeps file-system operations cheap no matter
+     * how large the table grows, and lets different segments be read in
+     * parallel.
+     * 
+     * @param f
+     *            the file that stores the first segment of this heap file.
+     * @param td
+     *            the schema of the tuples in this heap file.
+     * @param pagesPerSegment
+     *            the number of pages in each segment file, or 0 to store the
+     *            whole heap file in f.
+     */
+    public HeapFile(File f, TupleDesc td, int pagesPerSegment) {
         myFile = f;
         myTD = td;
+        this.pagesPerSegment = pagesPerSegment;
+        indexes = new ArrayList<ColumnIndex>();
     }
 
     /**
@@ -63,13 +90,45 @@ public class HeapFile implements DbFile {
         return myTD;
     }
 
+    /**
+     * Returns the number of pages in each segment file of this HeapFile, or 0
+     * if it is not segmented.
+     */
+    public int getPagesPerSegment() {
+        return pagesPerSegment;
+    }
+
+    /**
+     * Returns the file holding the specified segment of this HeapFile.
+     */
+    File segmentFile(int segment) {
+        if (segment == 0)
+            return myFile;
+        return new File(myFile.getPath() + "." + segment);
+    }
+
+    /**
+     * Returns the file holding the specified page.
+     */
+    File fileFor(int pgNo) {
+        return pagesPerSegment == 0 ? myFile : segmentFile(pgNo / pagesPerSegment);
+    }
+
+    /**
+     * Returns the byte offset of the specified page within its file. Offsets
+     * are longs, so files can be larger than 2 GB.
+     */
+    long offsetFor(int pgNo) {
+        long pageInFile = pagesPerSegment == 0 ? pgNo : pgNo % pagesPerSegment;
+        return pageInFile * BufferPool.getPageSize();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid){
         try{
-            RandomAccessFile raf = new RandomAccessFile(myFile,"r");
+            RandomAccessFile raf = new RandomAccessFile(fileFor(pid.getPageNumber()),"r");
             //calculate and seek to offset
-            int offset = BufferPool.getPageSize()*pid.getPageNumber();
-            raf.seek(offset);
+            raf.seek(offsetFor(pid.getPageNumber()));
             //read into buffer
             byte[] buffer = new byte[BufferPool.getPageSize()];
             raf.read(buffer,0,BufferPool.getPageSize());
@@ -86,23 +145,128 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         RandomAccessFile raf;
-        int offset = page.getId().getPageNumber();
+        int pgNo = page.getId().getPageNumber();
         try{
-            raf = new RandomAccessFile(myFile,"rw");
-            raf.seek(offset*BufferPool.getPageSize());
+            raf = new RandomAccessFile(fileFor(pgNo),"rw");
+            raf.seek(offsetFor(pgNo));
             raf.write(page.getPageData());;
             raf.close();
+            if (pagesPerSegment > 0)
+                segmentWritten(pgNo / pagesPerSegment);
         }catch(IOException io){
             throw io;
         }
 
     }
 
+    /**
+     * Returns the number of tuple slots on each page of this HeapFile.
+     * 
+     * @see HeapPage#HeapPage
+     */
+    public int getSlotsPerPage() {
+        return (BufferPool.getPageSize() * 8) / (myTD.getSize() * 8 + 1);
+    }
+
+    /**
+     * Returns the position of a tuple in this file: its page number times the
+     * number of slots per page, plus its slot number. Positions sort in file
+     * order, and are what {@link ColumnIndex} bitmaps are made of.
+     *
+     * @throws IllegalStateException if the position doesn't fit in an int,
+     *         which can only happen in a file that {@link #positionsFit}
+     *         rejects
+     */
+    public int getPosition(RecordId rid) {
+        long position = (long) rid.getPageId().getPageNumber() * getSlotsPerPage()
+            + rid.getTupleNumber();
+        if (position > Integer.MAX_VALUE)
+            throw new IllegalStateException("position of " + rid + " doesn't fit in an int");
+        return (int) position;
+    }
+
+    /**
+     * Returns true if every tuple slot of the first numPages pages of this
+     * file has a position (see {@link #getPosition}). Indexes can't cover,
+     * and the planner can't fetch tuples by position from, files that are
+     * longer than that.
+     */
+    public boolean positionsFit(int numPages) {
+        return (long) numPages * getSlotsPerPage() <= (long) Integer.MAX_VALUE + 1;
+    }
+
+    /**
+     * Returns the RecordId of the tuple slot at the specified position.
+     * 
+     * @see #getPosition
+     */
+    public RecordId getRecordId(int position) {
+        int slotsPerPage = getSlotsPerPage();
+        return new RecordId(new HeapPageId(getId(), position / slotsPerPage), position % slotsPerPage);
+    }
+
+    /**
+     * Attach an index to this file. Tuples inserted through
+     * {@link #insertTuple} from now on are added to the index.
+     */
+    public void addIndex(ColumnIndex idx) {
+        if (!positionsFit(numPages()))
+            throw new IllegalStateException("file is too large to index");
+        indexes.add(idx);
+    }
+
+    /**
+     * @return the indexes attached to this file.
+     */
+    public ArrayList<ColumnIndex> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * Rebuild every index attached to this file from a scan of the file,
+     * dropping entries left behind by deleted tuples and aborted inserts.
+     * Worth running after large deletes.
+     * 
+     * @param tid the transaction to scan the file as a part of
+     */
+    public void rebuildIndexes(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        for (ColumnIndex idx : indexes)
+            idx.rebuild(tid);
+    }
+
+    /**
+     * Returns the highest segment file of this HeapFile that exists. The
+     * segment files are looked for once; after that the count is kept up to
+     * date by {@link #writePage}.
+     */
+    private synchronized int lastSegment() {
+        if (lastSegment < 0) {
+            int last = 0;
+            while (segmentFile(last + 1).exists())
+                last++;
+            lastSegment = last;
+        }
+        return lastSegment;
+    }
+
+    private synchronized void segmentWritten(int segment) {
+        if (segment > lastSegment())
+            lastSegment = segment;
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) Math.floor((myFile.length()/BufferPool.getPageSize())) + addedPages;
+        long pageSize = BufferPool.getPageSize();
+        if (pagesPerSegment == 0)
+            return (int) (myFile.length() / pageSize) + addedPages;
+        //every segment but the last is full
+        int last = lastSegment;
+        if (last < 0)
+            last = lastSegment();
+        return last * pagesPerSegment + (int) (segmentFile(last).length() / pageSize) + addedPages;
     }
     
 
@@ -117,8 +281,9 @@ public class HeapFile implements DbFile {
         HeapPageId pid;
         HeapPage hp;
         int i = 0;
+        int numPages = numPages();
     
-        while(i < numPages()){
+        while(i < numPages){
             pid = new HeapPageId(getId(), i);
             hp = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
 
@@ -128,19 +293,20 @@ public class HeapFile implements DbFile {
                 pid = new HeapPageId(getId(),i);
                 //have searched every page in heapfile, create a new empty one and
                 //write it
-                if(i >= numPages()){
+                if(i >= numPages){
+                    if (!indexes.isEmpty() && !positionsFit(numPages + 1))
+                        throw new DbException("file is too large for its indexes");
                     hp = new HeapPage(pid, HeapPage.createEmptyPageData());
-                    RandomAccessFile raf = new RandomAccessFile(myFile, "rw");
-                    int offset = BufferPool.getPageSize() * numPages();
-                    raf.seek(offset);
-                    raf.write(hp.getPageData(), 0, BufferPool.getPageSize());
-                    raf.close();
+                    writePage(hp);
+                    numPages++;
                 }
             }
             else{
                 //found a free slot, insert it to the page
                 pages.add(hp);
                 hp.insertTuple(t);
+                for (ColumnIndex idx : indexes)
+                    idx.addTuple(t);
                 break;
             }
             
@@ -168,5 +334,13 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
+    /**
+     * Returns an iterator over the tuples of pages [firstPage, endPage) of
+     * this file; pages past the end of the file are ignored.
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return new HeapFileIterator(tid, this, firstPage, endPage);
+    }
+
 }
 
@@ -8,6 +8,9 @@ public class HeapFileIterator implements DbFileIterator {
 	Permissions read = Permissions.READ_ONLY;
 	int page_num = 0;
 	HeapFile myHeapFile;
+	//pages [first_page, end_page) are read; end_page < 0 reads to the end of the file
+	int first_page = 0;
+	int end_page = -1;
 
 
 	public HeapFileIterator(TransactionId tid, HeapFile hf) {
@@ -15,8 +18,30 @@ public class HeapFileIterator implements DbFileIterator {
 		this.myHeapFile = hf;
 	}
 
+	/**
+	 * Iterator over the tuples of a range of pages of a file.
+	 *
+	 * @param firstPage the first page to read
+	 * @param endPage one past the last page to read
+	 */
+	public HeapFileIterator(TransactionId tid, HeapFile hf, int firstPage, int endPage) {
+		this(tid, hf);
+		this.first_page = firstPage;
+		this.end_page = endPage;
+	}
+
+	private int endPage() {
+		int n = myHeapFile.numPages();
+		return end_page < 0 ? n : Math.min(end_page, n);
+	}
+
 	public void open() throws DbException, TransactionAbortedException{
-		page_num = 0;
+		page_num = first_page;
+		if(page_num >= endPage()){
+			//empty range: behave like an exhausted iterator
+			tuple_it = Collections.<Tuple>emptyList().iterator();
+			return;
+		}
 		//access first heappage
 		PageId pid = new HeapPageId(myHeapFile.getId(),page_num);
 		HeapPage hp = (HeapPage)Database.getBufferPool().getPage(myTID,pid,read);
@@ -29,7 +54,7 @@ public class HeapFileIterator implements DbFileIterator {
 		if(tuple_it.hasNext())
 			return true;
 		else{
-			if(page_num >= myHeapFile.numPages() - 1)
+			if(page_num >= endPage() - 1)
 				return false;
 			else{
 				//access next heappage if fully gone through current one
@@ -46,6 +71,8 @@ public class HeapFileIterator implements DbFileIterator {
 		if(tuple_it.hasNext())
 			return tuple_it.next();
 		else{
+			if(page_num >= endPage() - 1)
+				throw new NoSuchElementException();
 			PageId pid = new HeapPageId(myHeapFile.getId(), page_num + 1);
 			HeapPage hp = (HeapPage) Database.getBufferPool().getPage(myTID,pid,read);
 			if(hp.iterator().hasNext()){
@@ -63,7 +90,7 @@ public class HeapFileIterator implements DbFileIterator {
 	}
 
 	public void close(){
-		page_num = 0;
+		page_num = first_page;
 		tuple_it = null;
 	}
-}
\ No newline at end of file
+}
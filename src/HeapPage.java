@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
@@ -16,8 +17,16 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    // tuples are decoded from the page's bytes the first time they're
+    // needed; a used slot with a null tuple hasn't been decoded yet. Pages
+    // in the buffer pool are shared between threads, so tuples are
+    // published through an atomic array
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    // the bytes the page was read from, and where each field of a slot
+    // starts relative to the slot
+    private final byte[] data;
+    private final int[] fieldOffsets;
     boolean dirtyBool;
     TransactionId dirtyTid;
 
@@ -36,6 +45,10 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are decoded from data the first time they are read, so a scan
+     * that tests fields in place (see {@link #getIntField}) only builds the
+     * tuples it returns.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -51,15 +64,12 @@ public class HeapPage implements Page {
         for (int i=0; i<header.length; i++)
             header[i] = dis.readByte();
         
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
         dis.close();
+        this.data = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
         setBeforeImage();
     }
@@ -114,6 +124,44 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the offset in the page's bytes of the tuple in a slot */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * @return the tuple in a used slot, decoding it from the page's bytes
+     *         if it hasn't been yet.
+     */
+    private Tuple decode(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    data, slotOffset(slotId), td.getSize()));
+            t = readNextTuple(dis, slotId);
+            // another thread may have decoded the slot meanwhile
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
+        }
+        return t;
+    }
+
+    /**
+     * Read an int field of the tuple in a used slot straight from the
+     * page's bytes, without decoding the tuple.
+     *
+     * @param slotId the slot; must be in use
+     * @param field the field; must be of type INT_TYPE
+     */
+    int getIntField(int slotId, int field) {
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return ((IntField) t.getField(field)).getValue();
+        int o = slotOffset(slotId) + fieldOffsets[field];
+        return (data[o] << 24) | ((data[o+1] & 0xff) << 16)
+            | ((data[o+2] & 0xff) << 8) | (data[o+3] & 0xff);
+    }
+
     /**
      * Suck up tuples from the source file.
      */
@@ -176,7 +224,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -191,9 +239,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot that hasn't been decoded: copy its bytes
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -204,7 +261,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -248,14 +305,14 @@ public class HeapPage implements Page {
             throw new DbException("tuple has no recordid");
         }
         int tupNo = t.getRecordId().getTupleNumber();
-        if(tupNo < 0 || tupNo > tuples.length)
+        if(tupNo < 0 || tupNo > numSlots)
             throw new DbException("tupleno out of range!");
         if(!isSlotUsed(tupNo)){
             throw new DbException("No Tuple There");
         }
-        if(tuples[tupNo].getRecordId().equals(t.getRecordId())){
+        if(decode(tupNo).getRecordId().equals(t.getRecordId())){
             this.markSlotUsed(tupNo,false);
-            tuples[tupNo] = null;
+            tuples.set(tupNo, null);
         }
         else{
             throw new DbException("non existent tuple");
@@ -277,10 +334,10 @@ public class HeapPage implements Page {
         if(!td.equals(t.getTupleDesc())){
             throw new DbException("tuple descs do not match!");
         }
-        for(int i = 0; i < tuples.length; i++){
+        for(int i = 0; i < numSlots; i++){
             if(!isSlotUsed(i)){
                 t.setRecordId(new RecordId(pid,i));
-                tuples[i] = t;
+                tuples.set(i, t);
                 markSlotUsed(i,true);
                 return;
             }
@@ -341,6 +398,15 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return decode(i);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -361,10 +427,10 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
          Vector<Tuple> tuple_vector = new Vector<Tuple>();
-        for(int i = 0; i < tuples.length; i++){
+        for(int i = 0; i < numSlots; i++){
             //check that tuple is not in empty slot
             if(isSlotUsed(i)){
-                tuple_vector.add(tuples[i]);
+                tuple_vector.add(decode(i));
             }
         }
         return new MyTupleIterator<Tuple>(tuple_vector);
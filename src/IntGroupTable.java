@@ -0,0 +1,116 @@
+package simpledb;
+
+/**
+ * IntGroupTable is an open-addressing hash table from int group keys to the
+ * (value, count) state of an aggregate. Keys and states are kept in parallel
+ * int arrays and collisions are resolved by linear probing, so looking up or
+ * adding a group allocates nothing.
+ */
+class IntGroupTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] keys;
+    private int[] values;
+    private int[] counts;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    IntGroupTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        counts = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int home(int key) {
+        return (int) BloomFilter.mix(key) & mask;
+    }
+
+    /**
+     * Find the slot of a group, adding the group if it isn't in the table.
+     * Slots stay valid until the next group is added.
+     *
+     * @return the slot of the group if it was already in the table, or
+     *         -(slot + 1) if it was just added, with a value and count of 0
+     */
+    int slotOf(int key) {
+        int s = home(key);
+        while (used[s]) {
+            if (keys[s] == key)
+                return s;
+            s = (s + 1) & mask;
+        }
+        if (2 * (size + 1) > keys.length) {
+            // keep the table at most half full
+            grow();
+            return slotOf(key);
+        }
+        used[s] = true;
+        keys[s] = key;
+        size++;
+        return -(s + 1);
+    }
+
+    private void grow() {
+        int[] oldKeys = keys, oldValues = values, oldCounts = counts;
+        boolean[] oldUsed = used;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i])
+                continue;
+            int s = home(oldKeys[i]);
+            while (used[s])
+                s = (s + 1) & mask;
+            used[s] = true;
+            keys[s] = oldKeys[i];
+            values[s] = oldValues[i];
+            counts[s] = oldCounts[i];
+            size++;
+        }
+    }
+
+    /** @return the number of groups in the table */
+    int size() {
+        return size;
+    }
+
+    /** @return the number of slots, for iterating over them */
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    int key(int slot) {
+        return keys[slot];
+    }
+
+    int value(int slot) {
+        return values[slot];
+    }
+
+    int count(int slot) {
+        return counts[slot];
+    }
+
+    void set(int slot, int value, int count) {
+        values[slot] = value;
+        counts[slot] = count;
+    }
+
+    /** Remove every group, keeping the table's current capacity. */
+    void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+}
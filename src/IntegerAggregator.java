@@ -29,7 +29,21 @@ public class IntegerAggregator implements Aggregator {
     Op myWhat;
     boolean noGroup;
     int aggregateIndex;
+    //groups of string group-by fields
     HashMap<Field,AggregateData> aggMap;
+    //groups of int group-by fields, or the one group if there is no
+    //grouping; null if the group-by field is a string
+    IntGroupTable intGroups;
+
+    /**
+     * Default largest number of groups kept in memory at once; see
+     * {@link #setMemoryBudget}.
+     */
+    public static final int MAX_GROUPS = 100000;
+
+    int memoryBudget = MAX_GROUPS;
+    //partial aggregates of groups that didn't fit in memory, or null
+    SpilledGroups spilled;
 
     public class AggregateData{
         int myValue;
@@ -72,6 +86,9 @@ public class IntegerAggregator implements Aggregator {
         //holds the aggregate values for a given field
         //if no groupby, field is default to null
         aggMap = new HashMap<Field,AggregateData>();
+        if(noGroup || gbfieldtype == Type.INT_TYPE){
+            intGroups = new IntGroupTable();
+        }
     }
 
     /**
@@ -90,61 +107,265 @@ public class IntegerAggregator implements Aggregator {
         String[] tdNames; 
 
 
-        if(noGroup){
-            tdNames = new String[1];
-            tdNames[0] = new String("Aggregate");
-            tdTypes = new Type[1];
-            tdTypes[0] = Type.INT_TYPE;
-        }
-        else{
-            tdNames = new String[2];
-            tdTypes = new Type[2];
+        //SUM_COUNT results have a count column after the sum
+        int width = aggregateIndex + (myWhat == Op.SUM_COUNT ? 2 : 1);
+        tdNames = new String[width];
+        tdTypes = new Type[width];
+        if(!noGroup){
             tdNames[0] = new String("Group By");
-            tdNames[1] = new String("Aggregate");
             tdTypes[0] = myGbFieldType;
-            tdTypes[1] = Type.INT_TYPE;
+        }
+        tdNames[aggregateIndex] = new String("Aggregate");
+        tdTypes[aggregateIndex] = Type.INT_TYPE;
+        if(myWhat == Op.SUM_COUNT){
+            tdNames[aggregateIndex + 1] = new String("Count");
+            tdTypes[aggregateIndex + 1] = Type.INT_TYPE;
         }
         return new Tuple(new TupleDesc(tdTypes,tdNames));
 
     }
 
-public void mergeTupleIntoGroup(Tuple tup) {
+public void mergeTupleIntoGroup(Tuple tup) throws DbException {
 
-        Field myField;
-        if(noGroup)
-            myField = null;
-        else
-            myField = tup.getField(myGbField);
-        AggregateData myFieldData = aggMap.get(myField);
+        int count = myWhat == Op.SC_AVG ? ((IntField)tup.getField(myAfield + 1)).getValue() : 1;
+        int value = ((IntField)tup.getField(myAfield)).getValue();
+        if(intGroups != null){
+            int key = noGroup ? 0 : ((IntField)tup.getField(myGbField)).getValue();
+            mergeIntState(key, value, count);
+            checkBudget();
+        }
+        else{
+            mergeIntoGroup(tup.getField(myGbField), value, count);
+        }
+    }
+
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        int[] values = batch.getIntColumn(myAfield);
+        //SC_AVG merges (sum, count) pairs from SUM_COUNT aggregates
+        int[] counts = myWhat == Op.SC_AVG ? batch.getIntColumn(myAfield + 1) : null;
+        if(intGroups != null){
+            //int group keys are read straight from the batch's column
+            int[] keys = noGroup ? null : batch.getIntColumn(myGbField);
+            for(int i = 0; i < batch.size(); i++){
+                mergeIntState(keys == null ? 0 : keys[i], values[i], counts == null ? 1 : counts[i]);
+                checkBudget();
+            }
+            return;
+        }
+        for(int i = 0; i < batch.size(); i++){
+            mergeIntoGroup(batch.getField(i, myGbField), values[i], counts == null ? 1 : counts[i]);
+        }
+    }
+
+    public void setMemoryBudget(int groups) {
+        memoryBudget = Math.max(1, groups);
+    }
+
+    /**
+     * Merge one aggregate value into the aggregate for a group.
+     *
+     * @param myField the group, or null if there is no grouping
+     * @param tupValue the value of the aggregate field
+     * @param count the number of values tupValue stands for: 1, or the
+     *        count of a SUM_COUNT aggregate for SC_AVG
+     */
+    void mergeIntoGroup(Field myField, int tupValue, int count) throws DbException {
+        mergeState(myField, tupValue, count);
+        checkBudget();
+    }
 
-        int tupValue = ((IntField)tup.getField(myAfield)).getValue();
+    private void checkBudget() throws DbException {
+        if(!noGroup && groupCount() > memoryBudget){
+            spillGroups();
+        }
+    }
+
+    /**
+     * @return the number of groups in memory.
+     */
+    int groupCount() {
+        return intGroups != null ? intGroups.size() : aggMap.size();
+    }
+
+    /**
+     * @return the aggregate of the values old and value stand for: their
+     *         minimum, maximum or sum, depending on the operator.
+     */
+    private int combine(int old, int value) {
+        if(myWhat == Op.MIN){
+            return Math.min(old, value);
+        }
+        else if(myWhat == Op.MAX){
+            return Math.max(old, value);
+        }
+        return old + value;
+    }
+
+    /**
+     * Merge a partial aggregate of count values into the aggregate for an
+     * int group, or for the one group if there is no grouping.
+     */
+    void mergeIntState(int key, int value, int count) {
+        int slot = intGroups.slotOf(key);
+        if(slot < 0){
+            intGroups.set(-slot - 1, value, count);
+        }
+        else{
+            intGroups.set(slot, combine(intGroups.value(slot), value),
+                          intGroups.count(slot) + count);
+        }
+    }
+
+    /**
+     * Merge a partial aggregate of count values into the aggregate for a
+     * group. value is the minimum, maximum or sum of the values, depending
+     * on the operator.
+     */
+    void mergeState(Field myField, int value, int count) {
+
+        AggregateData myFieldData = aggMap.get(myField);
 
         if(myFieldData == null){
-            myFieldData = new AggregateData(tupValue,1);
+            myFieldData = new AggregateData(value,count);
             aggMap.put(myField,myFieldData);
         }else{
+            myFieldData.setValue(combine(myFieldData.getValue(), value));
+            myFieldData.myCount += count;
+        }
+
+    }
+
+    /**
+     * Write the partial aggregates of the groups in memory to disk, by
+     * group, as (group, value, count) tuples, and forget them.
+     */
+    void spillGroups() throws DbException {
+        if(spilled == null){
+            spilled = new SpilledGroups(new TupleDesc(new Type[]{ myGbFieldType,
+                        Type.INT_TYPE, Type.INT_TYPE }), 1, 0);
+        }
+        spillGroups(spilled);
+    }
 
-            if(myWhat == Op.MIN){
-                if(tupValue < myFieldData.getValue()){
-                    myFieldData.setValue(tupValue);
+    private void spillGroups(SpilledGroups to) throws DbException {
+        Tuple state = new Tuple(to.td);
+        if(intGroups != null){
+            for(int s = 0; s < intGroups.capacity(); s++){
+                if(intGroups.isUsed(s)){
+                    state.setField(0, new IntField(intGroups.key(s)));
+                    state.setField(1, new IntField(intGroups.value(s)));
+                    state.setField(2, new IntField(intGroups.count(s)));
+                    to.add(state);
                 }
             }
+            intGroups.clear();
+            return;
+        }
+        for(Map.Entry<Field,AggregateData> e : aggMap.entrySet()){
+            state.setField(0, e.getKey());
+            state.setField(1, new IntField(e.getValue().getValue()));
+            state.setField(2, new IntField(e.getValue().getCount()));
+            to.add(state);
+        }
+        aggMap = new HashMap<Field,AggregateData>();
+    }
 
-            else if(myWhat == Op.MAX){
-                if(tupValue > myFieldData.getValue()){
-                    myFieldData.setValue(tupValue);
+    /**
+     * Merge the partial aggregates in each of a set of spilled files and
+     * write the results to out. A file with more groups than the memory
+     * budget is split into another set of files first.
+     */
+    private void mergeSpilled(SpilledGroups groups, SpillFile out) throws DbException {
+        for(int p = 0; p < SpilledGroups.FANOUT; p++){
+            SpillFile f = groups.partition(p);
+            if(f == null){
+                continue;
+            }
+            SpilledGroups split = null;
+            f.rewind();
+            TupleBatch b;
+            while((b = f.next(TupleBatch.DEFAULT_SIZE)) != null){
+                for(int i = 0; i < b.size(); i++){
+                    if(intGroups != null){
+                        mergeIntState(b.ints[0][i], b.ints[1][i], b.ints[2][i]);
+                    }
+                    else{
+                        mergeState(b.getField(i, 0), b.ints[1][i], b.ints[2][i]);
+                    }
+                    if(groupCount() > memoryBudget && groups.canSplit()){
+                        if(split == null){
+                            split = new SpilledGroups(groups.td, 1, groups.level + 1);
+                        }
+                        spillGroups(split);
+                    }
+                }
+            }
+            f.delete();
+            if(split != null){
+                spillGroups(split);
+                mergeSpilled(split, out);
+            } else {
+                for(Tuple t : groupResults()){
+                    out.add(t);
+                }
+                aggMap = new HashMap<Field,AggregateData>();
+                if(intGroups != null){
+                    intGroups.clear();
                 }
             }
+        }
+    }
 
-            else if(myWhat == Op.SUM || myWhat == Op.AVG || myWhat == Op.COUNT){
-                myFieldData.addValue(tupValue);
+    /**
+     * @return the result tuple of a group.
+     */
+    Tuple resultTuple(Field field, int value, int count) {
+        Tuple aggTuple = newAggregateTuple();
+        int aggValue = 0;
 
+        if(myWhat == Op.SUM || myWhat == Op.MAX || myWhat == Op.MIN){
+            aggValue = value;
+        }
+        else if(myWhat == Op.COUNT){
+            aggValue = count;
+        }
+        else if(myWhat == Op.AVG || myWhat == Op.SC_AVG){
+            if(count == 0){
+                aggValue = 0;
+            }
+            else{
+                aggValue = value/count;
             }
-
-            myFieldData.incCount();
-            aggMap.put(myField,myFieldData);
         }
+        else if(myWhat == Op.SUM_COUNT){
+            aggValue = value;
+            aggTuple.setField(aggregateIndex + 1,new IntField(count));
+        }
+        if(!noGroup){
+            aggTuple.setField(0,field);
+        }
+        aggTuple.setField(aggregateIndex,new IntField(aggValue));
+        return aggTuple;
+    }
 
+    /**
+     * @return the result tuples of the groups in memory.
+     */
+    private Vector<Tuple> groupResults() {
+        Vector<Tuple> aggTuples = new Vector<Tuple>();
+        if(intGroups != null){
+            for(int s = 0; s < intGroups.capacity(); s++){
+                if(intGroups.isUsed(s)){
+                    Field field = noGroup ? null : new IntField(intGroups.key(s));
+                    aggTuples.add(resultTuple(field, intGroups.value(s), intGroups.count(s)));
+                }
+            }
+            return aggTuples;
+        }
+        for(Map.Entry<Field,AggregateData> e : aggMap.entrySet()){
+            aggTuples.add(resultTuple(e.getKey(), e.getValue().getValue(), e.getValue().getCount()));
+        }
+        return aggTuples;
     }
 
     /**
@@ -153,41 +374,22 @@ public void mergeTupleIntoGroup(Tuple tup) {
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no aggregateIndex. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor. If groups were spilled, the results are read
+     *         from a temporary file, which closing the iterator removes.
      */
-    public DbIterator iterator() {
-        
-        Vector<Tuple> aggTuples = new Vector<Tuple>();
-        Tuple aggTuple;
-
-        for(Field field : aggMap.keySet()){
-
-            aggTuple = newAggregateTuple();
-            AggregateData aggData = aggMap.get(field);
-            int aggValue = 0;
-
-            if(myWhat == Op.SUM || myWhat == Op.MAX || myWhat == Op.MIN){
-                aggValue = aggData.getValue();
-            }
-            else if(myWhat == Op.COUNT){
-                aggValue = aggData.getCount();
-            }
-            else if(myWhat == Op.AVG){
-                if(aggData.getCount() == 0){
-                    aggValue = 0;
-                }
-                else{
-                    aggValue = aggData.getValue()/aggData.getCount();
-                }
-            }
-            if(!noGroup){
-                aggTuple.setField(0,field);
-            }
-            aggTuple.setField(aggregateIndex,new IntField(aggValue));
-            aggTuples.add(aggTuple);
+    public DbIterator iterator() throws DbException {
+
+        if(spilled != null){
+            //merge each file of spilled groups in turn, and read the results
+            //back from disk
+            spillGroups();
+            SpillFile results = new SpillFile(newAggregateTuple().getTupleDesc());
+            mergeSpilled(spilled, results);
+            spilled = null;
+            return results.iterator();
         }
 
-        return new TupleIterator(newAggregateTuple().getTupleDesc(),aggTuples);
+        return new TupleIterator(newAggregateTuple().getTupleDesc(),groupResults());
 
     }
 
@@ -25,17 +25,36 @@ public class Join extends Operator {
     public Tuple outerTuple;
     public DbIterator myChild2;
 
+    /** Outer tuples buffered per pass over the inner relation by default. */
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+    private TupleDesc comboTD;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         myJPred = p;
         outerTuple = null;
         myChild1 = child1;
         myChild2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
         return myJPred;
     }
 
+    /**
+     * Set the number of outer tuples the join buffers per pass over the
+     * inner relation. 1 gives a tuple-at-a-time nested loops join.
+     */
+    public void setBlockSize(int tuples) {
+        blockSize = Math.max(1, tuples);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -59,7 +78,7 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.merge(myChild1.getTupleDesc(), myChild2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -68,6 +87,9 @@ public class Join extends Operator {
         super.open();
         myChild2.open();
         super.open();
+        block = null;
+        done = false;
+        intTest = PredicateCompiler.compile(myJPred.getOperator());
     }
 
     public void close() {
@@ -75,18 +97,65 @@ public class Join extends Operator {
         super.close();
         myChild2.close();
         super.close();
+        block = null;
+        innerTuple = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         myChild1.rewind();
         myChild2.rewind();
+        block = null;
+        innerTuple = null;
+        done = false;
+    }
+
+    // the current block of outer tuples; innerTuple is compared with its
+    // rows from row on
+    private transient TupleBatch block;
+    private transient Tuple innerTuple;
+    private transient int row;
+    private transient boolean done;
+    // the join operator compiled for comparing int join fields
+    private transient PredicateCompiler.IntTest intTest;
+
+    /**
+     * Read the next block of up to blockSize outer tuples.
+     * @return false if the outer relation is exhausted.
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block = new TupleBatch(myChild1.getTupleDesc(), Math.min(blockSize, TupleBatch.DEFAULT_SIZE));
+        while (block.size() < blockSize && myChild1.hasNext()) {
+            outerTuple = myChild1.next();
+            block.addTuple(outerTuple);
+        }
+        if (block.isEmpty()) {
+            block = null;
+            done = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if row r of the block and the inner tuple satisfy the
+     *         join predicate. Integer fields are compared without creating
+     *         Fields for the block's rows, by the operator compiled in open.
+     */
+    private boolean matches(int r, Field innerField, int[] outerInts) {
+        if (outerInts == null || innerField.getType() != Type.INT_TYPE)
+            return block.getField(r, myJPred.getField1()).compare(myJPred.getOperator(), innerField);
+        return intTest.test(outerInts[r], ((IntField) innerField).getValue());
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
+     * <p>
+     * This is a block nested loops join: it buffers a block of outer tuples,
+     * then compares every inner tuple with all of them in one pass over the
+     * inner relation, so the inner relation is read once per block rather
+     * than once per outer tuple.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -101,40 +170,46 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if(outerTuple == null){
-            if(!myChild1.hasNext()){
+        while (!done) {
+            if (block == null && !loadBlock())
                 return null;
-            }
-            else outerTuple = myChild1.next();
-        }
-        while(outerTuple != null) {
-            while(myChild2.hasNext()) {
-                Tuple innerTuple = myChild2.next();
-                if (myJPred.filter(outerTuple, innerTuple)) {
-                    Tuple mergedTuple = new Tuple(TupleDesc.merge(outerTuple.getTupleDesc(), innerTuple.getTupleDesc()));
-                    //combine tuples into one tuple
-                    for(int i = 0; i < outerTuple.getTupleDesc().numFields(); i++){
-                        mergedTuple.setField(i,outerTuple.getField(i));
-                    }
-                    for(int j = 0; j < innerTuple.getTupleDesc().numFields(); j++){
-                        mergedTuple.setField(j + outerTuple.getTupleDesc().numFields(),innerTuple.getField(j));
-                    }
-                    return mergedTuple;
+            if (innerTuple != null) {
+                Field innerField = innerTuple.getField(myJPred.getField2());
+                int f1 = myJPred.getField1();
+                int[] outerInts = myChild1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE
+                    ? block.getIntColumn(f1) : null;
+                while (row < block.size()) {
+                    int r = row++;
+                    if (matches(r, innerField, outerInts))
+                        return merge(r, innerTuple);
                 }
+                innerTuple = null;
             }
-            //restart inner tuple iterator
-            myChild2.rewind();
-
-            if(myChild1.hasNext()){
-                outerTuple = myChild1.next();
-            }
-            else{
-                outerTuple = null;
+            if (myChild2.hasNext()) {
+                innerTuple = myChild2.next();
+                row = 0;
+                continue;
             }
+            //restart inner tuple iterator for the next block
+            myChild2.rewind();
+            block = null;
         }
         return null;
     }
 
+    /**
+     * @return the concatenation of row r of the block and an inner tuple.
+     */
+    private Tuple merge(int r, Tuple inner) {
+        Tuple mergedTuple = new Tuple(comboTD);
+        int n1 = block.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            mergedTuple.setField(i, block.getField(r, i));
+        for (int j = 0; j < inner.getTupleDesc().numFields(); j++)
+            mergedTuple.setField(j + n1, inner.getField(j));
+        return mergedTuple;
+    }
+
 
     @Override
     public DbIterator[] getChildren() {
@@ -148,6 +223,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         myChild1 = children[0];
         myChild2 = children[1];
+        comboTD = TupleDesc.merge(myChild1.getTupleDesc(), myChild2.getTupleDesc());
     }
 
 }
@@ -13,6 +13,10 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    // the estimated cardinality of the right-hand side of each join that
+    // orderJoins returned
+    IdentityHashMap<LogicalJoinNode, Integer> innerCards =
+        new IdentityHashMap<LogicalJoinNode, Integer>();
 
     /**
      * Constructor
@@ -44,6 +48,23 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return the best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)}
+     * does, knowing roughly how many tuples plan2 returns. A sort-merge join
+     * of a range predicate buffers all of plan2, so it is only chosen if
+     * they fit in {@link SortMergeJoin#RANGE_BUFFER_SIZE}; without an
+     * estimate, a range predicate is nested-loop joined.
+     *
+     * @param card2
+     *            The estimated cardinality of plan2 (see
+     *            {@link #getInnerCardinality})
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -54,26 +75,67 @@ public class JoinOptimizer {
             throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
         }
 
-        if (lj instanceof LogicalSubplanJoinNode) {
-            t2id = 0;
-        } else {
-            try {
-                t2id = plan2.getTupleDesc().fieldNameToIndex(
-                        lj.f2QuantifiedName);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field "
-                        + lj.f2QuantifiedName);
-            }
+        try {
+            t2id = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        //merge join equalities with an input that is already in join order,
+        //and range predicates whose inner side fits in memory; hash the
+        //other equalities. See estimateJoinCost
+        boolean sorted1 = isSortedOn(plan1, t1id);
+        boolean sorted2 = isSortedOn(plan2, t2id);
+        if (lj.p == Predicate.Op.EQUALS && !sorted1 && !sorted2) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (mergeable(lj.p, card2)) {
+            j = new SortMergeJoin(p,
+                                  sorted1 ? plan1 : new OrderBy(t1id, true, plan1),
+                                  sorted2 ? plan2 : new OrderBy(t2id, true, plan2));
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Return true if a {@link SortMergeJoin} can join on a predicate without
+     * buffering more than its memory budget of an inner side of card2
+     * tuples. An equality only buffers runs of equal keys.
+     */
+    static boolean mergeable(Predicate.Op op, int card2) {
+        return SortMergeJoin.supports(op)
+            && (op == Predicate.Op.EQUALS || card2 <= SortMergeJoin.RANGE_BUFFER_SIZE);
+    }
+
+    /**
+     * Return true if a plan produces its tuples in ascending order of a
+     * field: that is, if it is an ascending OrderBy on the field, or a
+     * SortMergeJoin on it, possibly under filters.
+     */
+    static boolean isSortedOn(DbIterator plan, int field) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            JoinPredicate p = j.getJoinPredicate();
+            if (p.getField1() == field)
+                return true;
+            //the inner join field is equal to the outer one
+            int n1 = j.getChildren()[0].getTupleDesc().numFields();
+            return p.getOperator() == Predicate.Op.EQUALS && n1 + p.getField2() == field;
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,20 +164,72 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
 
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does, knowing whether each input already
+     * comes in ascending order of its join field. Such an interesting order
+     * saves a sort-merge join the sort of that input, so an equality with a
+     * sorted input is merge joined, and other equalities are hash joined.
+     * Range predicates are sort-merge joined if the right-hand side fits in
+     * the join's buffer, and nested-loop joined otherwise.
+     *
+     * @param sorted1
+     *            whether the left-hand side is sorted on its join field
+     * @param sorted2
+     *            whether the right-hand side is sorted on its join field
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        if (j.p == Predicate.Op.EQUALS && !sorted1 && !sorted2)
+            return hashJoinCost(card1, card2, cost1, cost2);
+        if (mergeable(j.p, card2)) {
+            //sort whichever input isn't sorted, then read each once. The
+            //matches are the same however the join is done, so only the
+            //work of finding them is counted
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!sorted1)
+                cost += sortCost(card1);
+            if (!sorted2)
+                cost += sortCost(card2);
+            return cost;
+        }
+        return nestedLoopJoinCost(j, card1, card2, cost1, cost2);
+    }
 
-        if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 5.
-            return card1 + cost1 + cost2;
-        } else {
-            
-            //index nested loop num reads = n(o) + n(i)*n(o) 
-            //where n is num tuples and r and s are two relations
-            //you need to do io for the inner relation n(o) many times
-            //and io for outer relation only once
-            return cost1 + cost2*card1 + card1*card2; 
+    /**
+     * @return the estimated cost of a {@link HashEquiJoin} that builds its
+     *         hash table from the left-hand side: each input is read and
+     *         hashed once, and once the left-hand side outgrows the memory
+     *         budget, all but one of the partitions of both inputs are
+     *         written out and read back.
+     */
+    static double hashJoinCost(int card1, int card2, double cost1, double cost2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (card1 > HashEquiJoin.MAP_SIZE) {
+            double spilled = (HashEquiJoin.FANOUT - 1) / (double) HashEquiJoin.FANOUT;
+            cost += 2 * spilled * (cost1 + cost2);
         }
+        return cost;
+    }
+
+    /**
+     * @return the estimated cost of sorting card tuples in memory.
+     */
+    static double sortCost(int card) {
+        return card < 2 ? card : card * (Math.log(card) / Math.log(2));
+    }
+
+    private double nestedLoopJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        //block nested loop num reads = n(o) + n(i)*ceil(n(o)/b)
+        //where n is num tuples and b is the join's block size
+        //you need to do io for the inner relation once per block
+        //of outer tuples and io for outer relation only once
+        double blocks = Math.ceil((double) card1 / Join.DEFAULT_BLOCK_SIZE);
+        return cost1 + cost2*blocks + (double) card1*card2;
     }
 
     /**
@@ -139,15 +253,9 @@ public class JoinOptimizer {
      */
     public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2,
             boolean t1pkey, boolean t2pkey, Map<String, TableStats> stats) {
-        if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 5.
-            return card1;
-        } else {
-            return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
-                    j.f1PureName, j.f2PureName, card1, card2, t1pkey, t2pkey,
-                    stats, p.getTableAliasToIdMapping());
-        }
+        return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, card1, card2, t1pkey, t2pkey,
+                stats, p.getTableAliasToIdMapping());
     }
 
 /*    /**
@@ -168,9 +276,9 @@ public class JoinOptimizer {
             myTransaction1.start();
             Transaction myTransaction2 = new Transaction();
             myTransaction2.start();
-            HeapFile hf1 = (HeapFile)Database.getCatalog().myCatalog.get(table1ID).file;
+            DbFile hf1 = Database.getCatalog().getDatabaseFile(table1ID);
             DbFileIterator iterator1 = hf1.iterator(myTransaction1.getId());
-            HeapFile hf2 = (HeapFile)Database.getCatalog().myCatalog.get(table2ID).file;
+            DbFile hf2 = Database.getCatalog().getDatabaseFile(table2ID);
             DbFileIterator iterator2 = hf2.iterator(myTransaction2.getId());
 
 
@@ -385,6 +493,11 @@ public class JoinOptimizer {
             throws ParsingException {
 
 
+        //a single table has no joins to order
+        if(joins.isEmpty()){
+            return new Vector<LogicalJoinNode>();
+        }
+
         int joinsSize = joins.size();
         PlanCache planCache = new PlanCache();
 
@@ -414,6 +527,9 @@ public class JoinOptimizer {
         }
         
         Vector<LogicalJoinNode> orderedNodes = planCache.getOrder(new HashSet<LogicalJoinNode>(joins));
+        for (int k = 0; k < orderedNodes.size(); k++)
+            innerCards.put(orderedNodes.get(k), innerCardinality(orderedNodes, k,
+                    planCache, stats, filterSelectivities));
 
         if(explain){
             printJoins(orderedNodes,planCache,stats,filterSelectivities);
@@ -548,11 +664,17 @@ public class JoinOptimizer {
             }
         }
 
+        // a subplan ending in a merge join may already be in join order
+        boolean t1sorted = !news.isEmpty() && doesJoin(prevBest, table1Alias)
+            && isSortedOn(prevBest, j.f1QuantifiedName, pc, stats, filterSelectivities);
+        boolean t2sorted = !news.isEmpty() && !t1sorted
+            && isSortedOn(prevBest, j.f2QuantifiedName, pc, stats, filterSelectivities);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1sorted, t2sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2sorted, t1sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -574,6 +696,60 @@ public class JoinOptimizer {
         return cc;
     }
 
+    /**
+     * Return true if the output of a left-deep plan is in ascending order of
+     * a field, which it is when its last join is a sort-merge join on it.
+     * Which joins are merge joins follows {@link #estimateJoinCost}.
+     */
+    private boolean isSortedOn(Vector<LogicalJoinNode> plan, String field,
+            PlanCache pc, HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) {
+        if (plan.isEmpty())
+            return false;
+        LogicalJoinNode last = plan.lastElement();
+        if (!SortMergeJoin.supports(last.p))
+            return false;
+        boolean sorts = field.equals(last.f1QuantifiedName)
+            || (last.p == Predicate.Op.EQUALS && field.equals(last.f2QuantifiedName));
+        if (!sorts)
+            return false;
+        if (last.p != Predicate.Op.EQUALS)
+            return mergeable(last.p, innerCardinality(plan, plan.size() - 1,
+                    pc, stats, filterSelectivities));
+        //an equality is only merged if an input was already sorted
+        Vector<LogicalJoinNode> rest = new Vector<LogicalJoinNode>(plan.subList(0, plan.size() - 1));
+        return isSortedOn(rest, last.f1QuantifiedName, pc, stats, filterSelectivities)
+            || isSortedOn(rest, last.f2QuantifiedName, pc, stats, filterSelectivities);
+    }
+
+    /**
+     * Return the estimated cardinality of the right-hand side of join k of
+     * a left-deep plan: the joins before it if they include its right-hand
+     * table, as {@link #computeCostAndCardOfSubplan} costs it, or that table
+     * alone otherwise.
+     */
+    private int innerCardinality(Vector<LogicalJoinNode> plan, int k,
+            PlanCache pc, HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) {
+        LogicalJoinNode j = plan.get(k);
+        Vector<LogicalJoinNode> before = new Vector<LogicalJoinNode>(plan.subList(0, k));
+        if (doesJoin(before, j.t2Alias))
+            return pc.getCard(new HashSet<LogicalJoinNode>(before));
+        String table = Database.getCatalog().getTableName(p.getTableId(j.t2Alias));
+        return stats.get(table).estimateTableCardinality(filterSelectivities.get(j.t2Alias));
+    }
+
+    /**
+     * Return the estimated cardinality of the right-hand side of a join that
+     * {@link #orderJoins} returned, to pass to
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator, int)},
+     * or Integer.MAX_VALUE if the join wasn't ordered by this optimizer.
+     */
+    public int getInnerCardinality(LogicalJoinNode j) {
+        Integer card = innerCards.get(j);
+        return card == null ? Integer.MAX_VALUE : card;
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
@@ -27,6 +27,9 @@ public class JoinPredicate implements Serializable {
     public int myField1;
     public int myField2;
     public Predicate.Op myOp;
+    // this predicate compiled for the type of the fields it last compared
+    private transient PredicateCompiler.PairTest compiled;
+    private transient Type compiledType;
 
     public JoinPredicate(int field1, Predicate.Op op, int field2) {
         myField1 = field1;
@@ -35,8 +38,9 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. The comparison is
+     * made by code specialized for the type of the fields and the operator;
+     * see {@link PredicateCompiler}.
      * 
      * @return true if the tuples satisfy the predicate.
      */
@@ -44,9 +48,22 @@ public class JoinPredicate implements Serializable {
         if(t1 == null || t2 == null)
             return false;
         else{
-            return t1.getField(myField1).compare(myOp,t2.getField(myField2));
+            return compile(t1.getField(myField1).getType()).test(t1, t2);
         }
     }
+
+    /**
+     * @return this predicate compiled into a comparison of fields of the
+     *         given type, with the same result as comparing through Field's
+     *         compare method.
+     */
+    PredicateCompiler.PairTest compile(Type type) {
+        if(compiled == null || compiledType != type){
+            compiled = PredicateCompiler.compile(this, type);
+            compiledType = type;
+        }
+        return compiled;
+    }
     
     public int getField1()
     {
@@ -1,4 +1,5 @@
 package simpledb;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
@@ -6,15 +7,18 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates may be computed over the groups of all of
+ * the group by fields, in one pass.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -23,30 +27,39 @@ import java.util.NoSuchElementException;
  */
 public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
+    private Vector<LogicalSubplanJoinNode> subqueryJoins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = NO_LIMIT;
     private String query;
 //    private Query owner;
 
+    /** The limit of a query without a LIMIT clause. */
+    public static final int NO_LIMIT = -1;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
+        subqueryJoins = new Vector<LogicalSubplanJoinNode>();
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
@@ -133,7 +146,8 @@ public class LogicalPlan {
 
     }
 
-    /** Add a join between a field and a subquery.
+    /** Add a join between a field and a subquery, which keeps the rows of
+     *  the field's table that match some row of the subquery.
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
      *  alias.field) or may be an unqualified unique field name.  If
@@ -146,14 +160,25 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, false);
+    }
+
+    /** Add a join between a field and a subquery, as {@link
+     *  #addJoin(String, DbIterator, Predicate.Op)} does.  The join is a
+     *  {@link SemiJoin}: it returns each row of the field's table at most
+     *  once, and none of the subquery's fields.
+     *  @param anti true to keep the rows that match no row of the
+     *    subquery instead, as for NOT IN and NOT EXISTS
+     */
+    public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred, boolean anti) throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
-        System.out.println("Added subplan join on " + joinField1);
-        joins.addElement(lj);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, anti);
+        System.out.println("Added subplan " + (anti ? "anti-join" : "join") + " on " + joinField1);
+        subqueryJoins.addElement(lj);
     }
 
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
@@ -186,23 +211,32 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query. Every aggregate added is computed in the same pass over
+        the groups of all of the GROUP BY fields added.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +250,28 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Return at most n rows of the query's result: the first n in the ORDER BY
+        order if there is one, otherwise any n.
+        @param n the number of rows, or NO_LIMIT
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the index of the aggregate a select list entry refers to among
+        the aggregates added by {@link #addAggregate}, or -1 if there is none */
+    private int indexOfAggregate(LogicalSelectListNode si) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equals(si.aggOp) && aggFields.elementAt(i).equals(si.fname))
+                return i;
+        }
+        return -1;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +327,373 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Pick the access method for a base table. If the table has indexes
+     *  that can answer any of its filters (see {@link ColumnIndex#lookup}),
+     *  the candidates of those filters are ANDed together and a
+     *  {@link BitmapIndexScan} reads only the candidate tuples. If the table
+     *  is a {@link PartitionedFile}, partitions that no tuple satisfying the
+     *  filters can be in are left out of a {@link PartitionScan}. Otherwise
+     *  the table is read with a {@link SeqScan}.
+     *  Either way, the filters themselves are still applied above the scan.
+     *  @param t The transaction the scan will run as a part of
+     *  @param table The table to scan
+     */
+    private SeqScan scanFor(TransactionId t, LogicalScanNode table) {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (f instanceof PartitionedFile)
+            return partitionScanFor(t, table, (PartitionedFile) f);
+        if (!(f instanceof HeapFile))
+            return new SeqScan(t, f.getId(), table.alias);
+        HeapFile hf = (HeapFile) f;
+        TupleDesc td = hf.getTupleDesc();
+        CompressedBitmap candidates = null;
+
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            Field c;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                c = filterConstant(td, field, lf);
+            } catch (NoSuchElementException e) {
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            for (ColumnIndex idx : hf.getIndexes()) {
+                if (idx.getField() != field)
+                    continue;
+                CompressedBitmap bm = idx.lookup(lf.p, c);
+                if (bm != null) {
+                    candidates = candidates == null ? bm : candidates.and(bm);
+                    break;
+                }
+            }
+        }
+
+        if (candidates == null)
+            return new SeqScan(t, hf.getId(), table.alias);
+        return new BitmapIndexScan(t, hf.getId(), table.alias, candidates);
+    }
+
+    /** Build a scan over the partitions of a partitioned table that may hold
+     *  tuples satisfying the table's filters on its partitioning column.
+     */
+    private SeqScan partitionScanFor(TransactionId t, LogicalScanNode table, PartitionedFile pf) {
+        TupleDesc td = pf.getTupleDesc();
+        boolean[] partitions = new boolean[pf.getPartitions().length];
+        Arrays.fill(partitions, true);
+
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            boolean[] keep;
+            try {
+                int field = td.fieldNameToIndex(lf.fieldPureName);
+                if (field != pf.getPartitionField())
+                    continue;
+                keep = pf.prune(lf.p, filterConstant(td, field, lf));
+            } catch (NoSuchElementException e) {
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            for (int i = 0; i < partitions.length; i++)
+                partitions[i] = partitions[i] && keep[i];
+        }
+        return new PartitionScan(t, pf.getId(), table.alias, partitions);
+    }
+
+    /** Parse the constant of a filter as a value of the filtered field's type.
+     *  @throws NumberFormatException if the field is an int and the constant isn't
+     */
+    private Field filterConstant(TupleDesc td, int field, LogicalFilterNode lf) {
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(lf.c));
+        return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Tables with at least this many pages are scanned in parallel. */
+    private static int parallelScanPages = 256;
+
+    public static int getParallelScanPages() {
+        return parallelScanPages;
+    }
+
+    /** Set how many pages a table needs before it is scanned in parallel. */
+    public static void setParallelScanPages(int pages) {
+        parallelScanPages = pages;
+    }
+
+    /** If a subplan is a plain scan of a large heap file under some filters,
+     *  replace it with a {@link ParallelScan} that scans and filters the
+     *  table a morsel at a time on every core.
+     *  Otherwise return the subplan unchanged.
+     */
+    private DbIterator parallelScanFor(DbIterator subplan) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator bottom = subplan;
+        while (bottom instanceof Filter) {
+            preds.add(0, ((Filter) bottom).getPredicate());
+            bottom = ((Filter) bottom).getChildren()[0];
+        }
+        if (Exchange.getParallelism() < 2 || bottom.getClass() != SeqScan.class)
+            return subplan;
+        SeqScan ss = (SeqScan) bottom;
+        DbFile f = Database.getCatalog().getDatabaseFile(ss.myTableID);
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() < parallelScanPages)
+            return subplan;
+        return new ParallelScan(ss.myTID, ss.myTableID, ss.getAlias(), preds);
+    }
+
+    /** Tables with at least this many pages have their filters fused into
+     *  their scan. */
+    private static int fusedScanPages = 2;
+
+    public static int getFusedScanPages() {
+        return fusedScanPages;
+    }
+
+    /** Set how many pages a table needs before its filters are fused into
+     *  its scan. */
+    public static void setFusedScanPages(int pages) {
+        fusedScanPages = pages;
+    }
+
+    /** If a subplan is a plain scan of a heap file under some filters, and
+     *  the table has enough pages for the saved per-tuple calls to outweigh
+     *  compiling the filters, replace it with a {@link FusedScan} that tests
+     *  the filters in its loop over the table's pages.
+     *  Otherwise return the subplan unchanged.
+     */
+    private DbIterator fusedScanFor(DbIterator subplan) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator bottom = subplan;
+        while (bottom instanceof Filter) {
+            preds.add(0, ((Filter) bottom).getPredicate());
+            bottom = ((Filter) bottom).getChildren()[0];
+        }
+        if (preds.isEmpty() || bottom.getClass() != SeqScan.class)
+            return subplan;
+        SeqScan ss = (SeqScan) bottom;
+        DbFile f = Database.getCatalog().getDatabaseFile(ss.myTableID);
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() < fusedScanPages)
+            return subplan;
+        return new FusedScan(ss.myTID, ss.myTableID, ss.getAlias(), preds);
+    }
+
+    /** Tables with at least this many fields besides their join fields are
+     *  materialized late. */
+    private static int lateMaterializationColumns = 4;
+
+    public static int getLateMaterializationColumns() {
+        return lateMaterializationColumns;
+    }
+
+    /** Set how many fields a table needs besides its join fields before only
+     *  its join fields are carried through the joins. */
+    public static void setLateMaterializationColumns(int columns) {
+        lateMaterializationColumns = columns;
+    }
+
+    /** @return the names of the fields the query reads after its joins: in
+     *  its select list, aggregates, GROUP BY and ORDER BY; or null if it
+     *  returns every field.
+     */
+    private HashSet<String> fieldsUsedAfterJoins() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*"))
+                return null;
+            used.add(si.fname);
+        }
+        used.addAll(aggFields);
+        used.addAll(groupByFields);
+        if (hasOrderBy)
+            used.add(oByField);
+        return used;
+    }
+
+    /** If a subplan is a scan of a heap file under some filters, and the
+     *  table has many fields the joins don't use, some of which the query
+     *  reads after the joins, narrow its tuples with a
+     *  {@link PositionProject} to the join fields and their positions, so
+     *  the joins copy and buffer fewer fields. {@link #materializeFor}
+     *  fetches the fields read after the joins.
+     *  Otherwise return the subplan unchanged.
+     *
+     *  @param used the names of the fields read after the joins, or null
+     *         for all of them
+     *  @param lateFields where to put the fields of the table to fetch
+     *         after the joins, by alias, if the subplan is narrowed
+     */
+    private DbIterator positionProjectFor(String alias, DbIterator subplan,
+            Set<String> used, Map<String,int[]> lateFields) {
+        DbIterator bottom = subplan;
+        while (bottom instanceof Filter)
+            bottom = ((Filter) bottom).getChildren()[0];
+        if (!(bottom instanceof SeqScan))
+            return subplan;
+        SeqScan ss = (SeqScan) bottom;
+        DbFile file = Database.getCatalog().getDatabaseFile(ss.myTableID);
+        if (!(file instanceof HeapFile))
+            return subplan;
+        //tuples are fetched by their int position
+        HeapFile hf = (HeapFile) file;
+        if (!hf.positionsFit(hf.numPages()))
+            return subplan;
+        TupleDesc td = subplan.getTupleDesc();
+        TreeSet<Integer> keep = new TreeSet<Integer>();
+        try {
+            for (LogicalJoinNode lj : joins) {
+                if (lj.t1Alias.equals(alias))
+                    keep.add(td.fieldNameToIndex(lj.f1QuantifiedName));
+                if (lj.t2Alias.equals(alias))
+                    keep.add(td.fieldNameToIndex(lj.f2QuantifiedName));
+            }
+        } catch (NoSuchElementException e) {
+            return subplan;
+        }
+        if (td.numFields() - keep.size() < lateMaterializationColumns)
+            return subplan;
+        TreeSet<Integer> fetch = new TreeSet<Integer>();
+        for (int f = 0; f < td.numFields(); f++) {
+            if (used == null || used.contains(td.getFieldName(f)))
+                fetch.add(f);
+        }
+        //nothing to fetch: carrying the table's fields costs no fetches
+        if (keep.containsAll(fetch))
+            return subplan;
+        //the join fields are fetched again with the rest, so the fields
+        //of the tuple keep their order
+        fetch.addAll(keep);
+        int[] fields = new int[keep.size()];
+        int i = 0;
+        for (int f : keep)
+            fields[i++] = f;
+        int[] late = new int[fetch.size()];
+        i = 0;
+        for (int f : fetch)
+            late[i++] = f;
+        lateFields.put(alias, late);
+        return new PositionProject(subplan, fields, ss.myTableID, alias);
+    }
+
+    /** Complete the tuples of a join of narrowed tables with a
+     *  {@link Materialize}, if any of its tables were narrowed.
+     *
+     *  @param widths the number of fields each narrowed table's
+     *         PositionProject returns, by alias
+     *  @param lateFields the fields of each narrowed table to fetch, by
+     *         alias
+     */
+    private DbIterator materializeFor(TransactionId t, DbIterator node,
+            Map<String,Integer> widths, Map<String,int[]> lateFields) {
+        TupleDesc td = node.getTupleDesc();
+        ArrayList<Integer> posFields = new ArrayList<Integer>();
+        ArrayList<String> aliases = new ArrayList<String>();
+        for (int i = 0; i < td.numFields(); i++) {
+            String name = td.getFieldName(i);
+            if (name == null || !name.endsWith(PositionProject.POSITION))
+                continue;
+            String alias = name.substring(0, name.length() - PositionProject.POSITION.length());
+            if (widths.containsKey(alias)) {
+                posFields.add(i);
+                aliases.add(alias);
+            }
+        }
+        if (posFields.isEmpty())
+            return node;
+        int[] pos = new int[posFields.size()];
+        int[] w = new int[pos.length];
+        int[] tableids = new int[pos.length];
+        int[][] fields = new int[pos.length][];
+        for (int i = 0; i < pos.length; i++) {
+            pos[i] = posFields.get(i);
+            w[i] = widths.get(aliases.get(i));
+            tableids[i] = getTableId(aliases.get(i));
+            fields[i] = lateFields.get(aliases.get(i));
+        }
+        return new Materialize(t, node, pos, w, tableids, fields);
+    }
+
+    /** @return true if a subplan runs on several threads. */
+    private static boolean isParallel(DbIterator plan) {
+        return plan instanceof Gather || plan instanceof ParallelScan;
+    }
+
+    /** @return the parts of a subplan that can be read on separate threads. */
+    private static DbIterator[] parallelInputs(DbIterator plan) {
+        if (plan instanceof Gather)
+            return ((Gather) plan).getChildren();
+        return new DbIterator[] { plan };
+    }
+
+    /** Build a join whose outer side runs in parallel, as one join per
+     *  worker under a {@link Gather}. An equality join with a parallel inner
+     *  side repartitions both sides by the join fields; any other join sends
+     *  all of the inner side to every copy of the join. The exchanges stream
+     *  their rows, except to a nested loops join, whose inner side is kept
+     *  so it can be rewound.
+     *
+     *  @param card2 the estimated cardinality of plan2
+     */
+    private DbIterator parallelJoin(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2,
+            int card2) throws ParsingException {
+        int n = Exchange.getParallelism();
+        int f1;
+        try {
+            f1 = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        DbIterator[] outer;
+        DbIterator[] inner;
+        ExchangeProducer innerSide;
+        if (isParallel(plan2) && lj.p == Predicate.Op.EQUALS) {
+            int f2;
+            try {
+                f2 = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
+            }
+            HashRepartition left = new HashRepartition(parallelInputs(plan1), f1, n);
+            HashRepartition right = new HashRepartition(parallelInputs(plan2), f2, n);
+            outer = new DbIterator[n];
+            inner = new DbIterator[n];
+            for (int i = 0; i < n; i++) {
+                outer[i] = left.getOutput(i);
+                inner[i] = right.getOutput(i);
+            }
+            innerSide = right;
+        } else {
+            if (plan1 instanceof Gather) {
+                outer = parallelInputs(plan1);
+            } else {
+                //any split of the outer side will do; hash on the join field
+                HashRepartition split = new HashRepartition(parallelInputs(plan1), f1, n);
+                outer = new DbIterator[n];
+                for (int i = 0; i < n; i++)
+                    outer[i] = split.getOutput(i);
+            }
+            Broadcast b = new Broadcast(parallelInputs(plan2), outer.length);
+            inner = new DbIterator[outer.length];
+            for (int i = 0; i < inner.length; i++)
+                inner[i] = b.getOutput(i);
+            innerSide = b;
+        }
+
+        DbIterator[] joins = new DbIterator[outer.length];
+        for (int i = 0; i < joins.length; i++)
+            joins[i] = JoinOptimizer.instantiateJoin(lj, outer[i], inner[i], card2);
+        //a nested loops join rewinds its inner side for every block of
+        //outer rows; keep that side instead of recomputing it each time
+        if (joins[0] instanceof Join)
+            innerSide.setRewindable(true);
+        return new Gather(joins);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +717,7 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = scanFor(t, table);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -344,6 +767,58 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // a LIMIT right above a single table's scan stops it after the pages
+        // it needs; a parallel scan would read ahead on every core instead
+        boolean limitStopsScan = limit != NO_LIMIT && !hasOrderBy && !hasAgg && joins.isEmpty();
+        if (!limitStopsScan) {
+            for (Map.Entry<String,DbIterator> e : subplanMap.entrySet())
+                e.setValue(parallelScanFor(e.getValue()));
+        }
+        for (Map.Entry<String,DbIterator> e : subplanMap.entrySet())
+            e.setValue(fusedScanFor(e.getValue()));
+
+        // a subquery join only keeps or drops rows of one table, so it is
+        // applied to the table's subplan, like a filter, before the joins
+        for (LogicalSubplanJoinNode lj : subqueryJoins) {
+            DbIterator plan1 = subplanMap.get(lj.t1Alias);
+            if (plan1 == null)
+                throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+            if (lj.subPlan == null)
+                throw new ParsingException("Invalid subquery.");
+            int f1;
+            try {
+                f1 = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+            }
+            TupleDesc subTd = lj.subPlan.getTupleDesc();
+            if (subTd.numFields() == 0 || subTd.getFieldType(0) != plan1.getTupleDesc().getFieldType(f1))
+                throw new ParsingException("Subquery compared with " + lj.f1QuantifiedName + " returns a field of another type");
+            JoinPredicate p = new JoinPredicate(f1, lj.p, 0);
+            subplanMap.put(lj.t1Alias, new SemiJoin(p, plan1, lj.subPlan, lj.anti));
+        }
+
+        // carry only the join fields of wide tables through the joins, and
+        // fetch the fields read after the joins for the tuples that survive
+        // them. Parallel plans keep whole tuples, since the fetches above a
+        // Gather run on one thread
+        HashMap<String,Integer> lateWidths = new HashMap<String,Integer>();
+        HashMap<String,int[]> lateFields = new HashMap<String,int[]>();
+        boolean anyParallel = false;
+        for (DbIterator subplan : subplanMap.values())
+            anyParallel |= isParallel(subplan);
+        if (!joins.isEmpty() && !anyParallel) {
+            HashSet<String> used = fieldsUsedAfterJoins();
+            for (Map.Entry<String,DbIterator> e : subplanMap.entrySet()) {
+                DbIterator narrow = positionProjectFor(e.getKey(), e.getValue(),
+                        used, lateFields);
+                if (narrow != e.getValue()) {
+                    lateWidths.put(e.getKey(), narrow.getTupleDesc().numFields());
+                    e.setValue(narrow);
+                }
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -353,7 +828,6 @@ public class LogicalPlan {
             LogicalJoinNode lj = joinIt.next();
             DbIterator plan1;
             DbIterator plan2;
-            boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
             String t1name, t2name;
 
             if (equivMap.get(lj.t1Alias)!=null)
@@ -367,39 +841,31 @@ public class LogicalPlan {
                 t2name = lj.t2Alias;
 
             plan1 = subplanMap.get(t1name);
+            plan2 = subplanMap.get(t2name);
 
-            if (isSubqueryJoin) {
-                plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
-                if (plan2 == null) 
-                    throw new ParsingException("Invalid subquery.");
-            } else { 
-                plan2 = subplanMap.get(t2name);
-            }
-            
             if (plan1 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            int card2 = jo.getInnerCardinality(lj);
+            if (isParallel(plan1))
+                j = parallelJoin(lj, plan1, plan2, card2);
+            else
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, card2);
             subplanMap.put(t1name, j);
 
-            if (!isSubqueryJoin) {
-                subplanMap.remove(t2name);
-                equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
-                    //make sure anything that was equiv to lj.t2 (which we are just removed) is
-                    // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
-                    for (java.util.Map.Entry<String, String> s: equivMap.entrySet()) {
-                        String val = s.getValue();
-                        if (val.equals(t2name)) {
-                            s.setValue(t1name);
-                        }
-                    }
-                    
-                // subplanMap.put(lj.t2, j);
+            subplanMap.remove(t2name);
+            equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
+            //make sure anything that was equiv to lj.t2 (which we are just removed) is
+            // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
+            for (java.util.Map.Entry<String, String> s: equivMap.entrySet()) {
+                String val = s.getValue();
+                if (val.equals(t2name)) {
+                    s.setValue(t1name);
+                }
             }
-            
         }
 
         if (subplanMap.size() > 1) {
@@ -407,6 +873,8 @@ public class LogicalPlan {
         }
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        if (!lateWidths.isEmpty())
+            node = materializeFor(t, node, lateWidths, lateFields);
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -414,7 +882,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                //aggregates follow the GROUP BY fields in the aggregate's output
+                int agg = indexOfAggregate(si);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +899,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +934,54 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    ops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                if (isParallel(node)) {
+                    //two phases: each worker aggregates the rows it reads,
+                    //then one final aggregate combines the workers' results
+                    DbIterator[] inputs = parallelInputs(node);
+                    if (inputs.length == 1) {
+                        //split a parallel scan's rows between the workers
+                        HashRepartition split = new HashRepartition(inputs,
+                                gfields.length == 0 ? afields[0] : gfields[0], Exchange.getParallelism());
+                        inputs = new DbIterator[split.numOutputs()];
+                        for (int i = 0; i < inputs.length; i++)
+                            inputs[i] = split.getOutput(i);
+                    }
+                    Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+                    Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+                    int[] partialAfields = new int[ops.length];
+                    int col = gfields.length;
+                    for (int i = 0; i < ops.length; i++) {
+                        partialOps[i] = Aggregate.partialOp(ops[i]);
+                        finalOps[i] = Aggregate.finalOp(ops[i]);
+                        partialAfields[i] = col;
+                        col += partialOps[i] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+                    }
+                    int[] partialGfields = new int[gfields.length];
+                    for (int i = 0; i < gfields.length; i++)
+                        partialGfields[i] = i;
+                    DbIterator[] partials = new DbIterator[inputs.length];
+                    for (int i = 0; i < inputs.length; i++)
+                        partials[i] = new Aggregate(inputs[i], afields, gfields, partialOps);
+                    aggNode = new Aggregate(new Gather(partials), partialAfields, partialGfields, finalOps);
+                } else {
+                    Aggregate agg = new Aggregate(node, afields, gfields, ops);
+                    //stream the groups of an input that is already sorted
+                    //on the group by field instead of hashing them
+                    if (gfields.length == 1 && JoinOptimizer.isSortedOn(node, gfields[0]))
+                        agg.setSortedInput(true);
+                    aggNode = agg;
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,8 +990,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        // a limit is applied below the projection, so no more rows are
+        // projected than are returned, and reading stops once they are found
+        if (hasOrderBy && limit != NO_LIMIT) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
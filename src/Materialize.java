@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Materialize fetches the fields that {@link PositionProject}s left out of
+ * their tables' tuples. Each table contributes a segment of the child's
+ * fields ending in a position field; Materialize replaces the segment with
+ * fields of the table's tuple at that position, read from the table's
+ * {@link HeapFile}, and passes the other fields through. Placed above a
+ * tree of joins, it reads only the tuples that made it through the joins.
+ * Fetching every field of each table, its tuples have the same fields, in
+ * the same order, as the joins of the whole tables would; otherwise they
+ * have the fields asked for, in the tables' order.
+ */
+public class Materialize extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private DbIterator child;
+    private int[] posFields;
+    private int[] widths;
+    private int[] tableids;
+    private int[][] fields;
+    private TupleDesc td;
+    private transient HeapFile[] files;
+    // the page of each table the last tuple came from
+    private transient HeapPage[] pages;
+
+    /**
+     * Constructor for a Materialize that fetches every field of each table.
+     *
+     * @see #Materialize(TransactionId, DbIterator, int[], int[], int[], int[][])
+     */
+    public Materialize(TransactionId tid, DbIterator child, int[] posFields,
+            int[] widths, int[] tableids) {
+        this(tid, child, posFields, widths, tableids, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the tuples are read in
+     * @param child
+     *            the operator whose tuples to complete
+     * @param posFields
+     *            the indexes of the child's position fields, in ascending
+     *            order
+     * @param widths
+     *            the number of fields of each position field's segment,
+     *            counting the position field itself
+     * @param tableids
+     *            the table each position field refers to; each must be
+     *            stored in a HeapFile
+     * @param fields
+     *            the fields of each table to return in place of its
+     *            segment, in ascending order, or null to return all of the
+     *            fields of every table
+     */
+    public Materialize(TransactionId tid, DbIterator child, int[] posFields,
+            int[] widths, int[] tableids, int[][] fields) {
+        this.tid = tid;
+        this.child = child;
+        this.posFields = posFields;
+        this.widths = widths;
+        this.tableids = tableids;
+        if (fields == null) {
+            fields = new int[tableids.length][];
+            for (int s = 0; s < tableids.length; s++) {
+                fields[s] = new int[Database.getCatalog().getTupleDesc(tableids[s]).numFields()];
+                for (int i = 0; i < fields[s].length; i++)
+                    fields[s][i] = i;
+            }
+        }
+        this.fields = fields;
+        TupleDesc childtd = child.getTupleDesc();
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        int next = 0;
+        for (int s = 0; s <= posFields.length; s++) {
+            int end = s < posFields.length ? posFields[s] - widths[s] + 1 : childtd.numFields();
+            for (; next < end; next++) {
+                types.add(childtd.getFieldType(next));
+                names.add(childtd.getFieldName(next));
+            }
+            if (s < posFields.length) {
+                TupleDesc tabletd = Database.getCatalog().getTupleDesc(tableids[s]);
+                for (int i : fields[s]) {
+                    types.add(tabletd.getFieldType(i));
+                    names.add(tabletd.getFieldName(i));
+                }
+                next = posFields[s] + 1;
+            }
+        }
+        td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    /** @return the tables whose tuples are fetched */
+    public int[] getTableIds() {
+        return tableids;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        files = new HeapFile[tableids.length];
+        for (int s = 0; s < tableids.length; s++)
+            files[s] = (HeapFile) Database.getCatalog().getDatabaseFile(tableids[s]);
+        pages = new HeapPage[tableids.length];
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pages = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Completes the child's next tuple
+     * with fields of the tuples at its positions.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        Tuple out = new Tuple(td);
+        int col = 0, next = 0;
+        for (int s = 0; s <= posFields.length; s++) {
+            int end = s < posFields.length ? posFields[s] - widths[s] + 1 : t.getTupleDesc().numFields();
+            for (; next < end; next++)
+                out.setField(col++, t.getField(next));
+            if (s < posFields.length) {
+                Tuple full = fetch(s, ((IntField) t.getField(posFields[s])).getValue());
+                for (int i : fields[s])
+                    out.setField(col++, full.getField(i));
+                next = posFields[s] + 1;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the tuple at a position of table s
+     */
+    private Tuple fetch(int s, int position) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = files[s].getRecordId(position);
+        if (pages[s] == null || !pages[s].getId().equals(rid.getPageId()))
+            pages[s] = (HeapPage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+        Tuple full = pages[s].getTuple(rid.getTupleNumber());
+        if (full == null)
+            throw new DbException("no tuple at position " + position + " of table " + tableids[s]);
+        return full;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
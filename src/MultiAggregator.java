@@ -0,0 +1,318 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Knows how to compute several aggregates at once over groups of rows that
+ * agree on any number of group-by fields. Integer fields support every
+ * aggregate operator; string fields only COUNT.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    int[] myGbFields;
+    Type[] myGbFieldTypes;
+    int[] myAfields;
+    Op[] myWhats;
+    // true for aggregates over string fields, which only count rows
+    boolean[] countOnly;
+    // each group's state holds a (value, count) pair per aggregate, where
+    // value is the minimum, maximum or sum of the values for the operator
+    HashMap<List<Field>,int[]> aggMap;
+    int memoryBudget = IntegerAggregator.MAX_GROUPS;
+    //partial aggregates of groups that didn't fit in memory, or null
+    SpilledGroups spilled;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple,
+     *            one per aggregate
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operators, one per aggregate
+     * @throws IllegalArgumentException if a string field has an operator
+     *            other than COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        myGbFields = gbfields;
+        myGbFieldTypes = gbfieldtypes;
+        myAfields = afields;
+        myWhats = whats;
+        countOnly = new boolean[afields.length];
+        for(int i = 0; i < afields.length; i++){
+            countOnly[i] = afieldtypes[i] == Type.STRING_TYPE;
+            if(countOnly[i] && whats[i] != Op.COUNT){
+                throw new IllegalArgumentException("operation over a string field must be count");
+            }
+        }
+        aggMap = new HashMap<List<Field>,int[]>();
+    }
+
+    /**
+     * @return the schema of the result tuples: the group-by fields, then a
+     *         column per aggregate, or two for SUM_COUNT.
+     */
+    public TupleDesc resultDesc() {
+        ArrayList<Type> types = new ArrayList<Type>(Arrays.asList(myGbFieldTypes));
+        for(Op what : myWhats){
+            types.add(Type.INT_TYPE);
+            if(what == Op.SUM_COUNT){
+                types.add(Type.INT_TYPE);
+            }
+        }
+        return new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        Field[] key = new Field[myGbFields.length];
+        for(int g = 0; g < key.length; g++){
+            key[g] = tup.getField(myGbFields[g]);
+        }
+        int[] state = stateOf(Arrays.asList(key));
+        for(int i = 0; i < myAfields.length; i++){
+            int value = countOnly[i] ? 0 : ((IntField)tup.getField(myAfields[i])).getValue();
+            int count = myWhats[i] == Op.SC_AVG ? ((IntField)tup.getField(myAfields[i] + 1)).getValue() : 1;
+            merge(state, i, value, count);
+        }
+        checkBudget();
+    }
+
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        int n = myAfields.length;
+        int[][] values = new int[n][];
+        int[][] counts = new int[n][];
+        for(int i = 0; i < n; i++){
+            if(!countOnly[i]){
+                values[i] = batch.getIntColumn(myAfields[i]);
+            }
+            if(myWhats[i] == Op.SC_AVG){
+                counts[i] = batch.getIntColumn(myAfields[i] + 1);
+            }
+        }
+        for(int r = 0; r < batch.size(); r++){
+            Field[] key = new Field[myGbFields.length];
+            for(int g = 0; g < key.length; g++){
+                key[g] = batch.getField(r, myGbFields[g]);
+            }
+            int[] state = stateOf(Arrays.asList(key));
+            for(int i = 0; i < n; i++){
+                merge(state, i, values[i] == null ? 0 : values[i][r],
+                      counts[i] == null ? 1 : counts[i][r]);
+            }
+            checkBudget();
+        }
+    }
+
+    /**
+     * @return an empty state for one group, for callers that keep track of
+     *         their own group; see {@link #mergeRow}.
+     */
+    int[] newState() {
+        return new int[2 * myAfields.length];
+    }
+
+    /**
+     * Merge row r of a batch into the state of its group.
+     */
+    void mergeRow(int[] state, TupleBatch batch, int r) {
+        for(int i = 0; i < myAfields.length; i++){
+            int value = countOnly[i] ? 0 : batch.getIntColumn(myAfields[i])[r];
+            int count = myWhats[i] == Op.SC_AVG ? batch.getIntColumn(myAfields[i] + 1)[r] : 1;
+            merge(state, i, value, count);
+        }
+    }
+
+    public void setMemoryBudget(int groups) {
+        memoryBudget = Math.max(1, groups);
+    }
+
+    /**
+     * @return the state of a group, creating an empty one if the group has
+     *         not been seen yet. Counts of 0 mark values that haven't been
+     *         set.
+     */
+    private int[] stateOf(List<Field> key) {
+        int[] state = aggMap.get(key);
+        if(state == null){
+            state = new int[2 * myAfields.length];
+            aggMap.put(key, state);
+        }
+        return state;
+    }
+
+    /**
+     * Merge a partial aggregate of count values into aggregate i of a
+     * group's state.
+     */
+    private void merge(int[] state, int i, int value, int count) {
+        int v = 2 * i, c = v + 1;
+        if(state[c] == 0){
+            state[v] = value;
+        }
+        else if(myWhats[i] == Op.MIN){
+            state[v] = Math.min(state[v], value);
+        }
+        else if(myWhats[i] == Op.MAX){
+            state[v] = Math.max(state[v], value);
+        }
+        else{
+            state[v] += value;
+        }
+        state[c] += count;
+    }
+
+    private void checkBudget() throws DbException {
+        if(myGbFields.length > 0 && aggMap.size() > memoryBudget){
+            spillGroups();
+        }
+    }
+
+    /**
+     * Write the states of the groups in memory to disk, by group, as tuples
+     * of the group-by fields followed by each aggregate's value and count,
+     * and forget them.
+     */
+    void spillGroups() throws DbException {
+        if(spilled == null){
+            Type[] types = new Type[myGbFields.length + 2 * myAfields.length];
+            for(int i = 0; i < types.length; i++){
+                types[i] = i < myGbFields.length ? myGbFieldTypes[i] : Type.INT_TYPE;
+            }
+            spilled = new SpilledGroups(new TupleDesc(types), myGbFields.length, 0);
+        }
+        spillGroups(spilled);
+    }
+
+    private void spillGroups(SpilledGroups to) throws DbException {
+        Tuple state = new Tuple(to.td);
+        int g = myGbFields.length;
+        for(Map.Entry<List<Field>,int[]> e : aggMap.entrySet()){
+            for(int i = 0; i < g; i++){
+                state.setField(i, e.getKey().get(i));
+            }
+            int[] values = e.getValue();
+            for(int i = 0; i < values.length; i++){
+                state.setField(g + i, new IntField(values[i]));
+            }
+            to.add(state);
+        }
+        aggMap = new HashMap<List<Field>,int[]>();
+    }
+
+    /**
+     * Merge the states in each of a set of spilled files and write the
+     * results to out. A file with more groups than the memory budget is
+     * split into another set of files first.
+     */
+    private void mergeSpilled(SpilledGroups groups, SpillFile out) throws DbException {
+        int g = myGbFields.length;
+        for(int p = 0; p < SpilledGroups.FANOUT; p++){
+            SpillFile f = groups.partition(p);
+            if(f == null){
+                continue;
+            }
+            SpilledGroups split = null;
+            f.rewind();
+            TupleBatch b;
+            while((b = f.next(TupleBatch.DEFAULT_SIZE)) != null){
+                for(int r = 0; r < b.size(); r++){
+                    Field[] key = new Field[g];
+                    for(int i = 0; i < g; i++){
+                        key[i] = b.getField(r, i);
+                    }
+                    int[] state = stateOf(Arrays.asList(key));
+                    for(int i = 0; i < myAfields.length; i++){
+                        int count = b.ints[g + 2 * i + 1][r];
+                        if(count > 0){
+                            merge(state, i, b.ints[g + 2 * i][r], count);
+                        }
+                    }
+                    if(aggMap.size() > memoryBudget && groups.canSplit()){
+                        if(split == null){
+                            split = new SpilledGroups(groups.td, g, groups.level + 1);
+                        }
+                        spillGroups(split);
+                    }
+                }
+            }
+            f.delete();
+            if(split != null){
+                spillGroups(split);
+                mergeSpilled(split, out);
+            } else {
+                for(Map.Entry<List<Field>,int[]> e : aggMap.entrySet()){
+                    out.add(resultTuple(e.getKey(), e.getValue()));
+                }
+                aggMap = new HashMap<List<Field>,int[]>();
+            }
+        }
+    }
+
+    /**
+     * @return the result tuple of a group.
+     */
+    Tuple resultTuple(List<Field> key, int[] state) {
+        Tuple aggTuple = new Tuple(resultDesc());
+        int col = 0;
+        for(Field f : key){
+            aggTuple.setField(col++, f);
+        }
+        for(int i = 0; i < myWhats.length; i++){
+            int value = state[2 * i], count = state[2 * i + 1];
+            int aggValue;
+            if(myWhats[i] == Op.COUNT){
+                aggValue = count;
+            }
+            else if(myWhats[i] == Op.AVG || myWhats[i] == Op.SC_AVG){
+                aggValue = count == 0 ? 0 : value / count;
+            }
+            else{
+                aggValue = value;
+            }
+            aggTuple.setField(col++, new IntField(aggValue));
+            if(myWhats[i] == Op.SUM_COUNT){
+                aggTuple.setField(col++, new IntField(count));
+            }
+        }
+        return aggTuple;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by fields followed by
+     *         each aggregate's value; see {@link #resultDesc}. If groups
+     *         were spilled, the results are read from a temporary file, which
+     *         closing the iterator removes.
+     */
+    public DbIterator iterator() throws DbException {
+
+        if(spilled != null){
+            spillGroups();
+            SpillFile results = new SpillFile(resultDesc());
+            mergeSpilled(spilled, results);
+            spilled = null;
+            return results.iterator();
+        }
+
+        Vector<Tuple> aggTuples = new Vector<Tuple>();
+
+        for(Map.Entry<List<Field>,int[]> e : aggMap.entrySet()){
+            aggTuples.add(resultTuple(e.getKey(), e.getValue()));
+        }
+
+        return new TupleIterator(resultDesc(),aggTuples);
+
+    }
+
+}
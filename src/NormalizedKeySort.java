@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * NormalizedKeySort sorts the rows of a batch on one column without
+ * comparing Fields. Each row's key is first encoded as a long whose signed
+ * order is the sort order: an int key packed with its row number, or the
+ * first four characters of a string key. The longs are then sorted as
+ * primitives, in parallel when there are enough rows, and only string keys
+ * whose first four characters tie are compared in full.
+ */
+class NormalizedKeySort {
+
+    /** Fewest rows sorted in parallel; smaller sorts run in the caller. */
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    /**
+     * @return the row numbers of the rows of a batch, ordered on a column.
+     *         Rows with equal keys keep the order they are in the batch.
+     */
+    static int[] sortedOrder(TupleBatch rows, int col, boolean asc) {
+        int n = rows.size();
+        boolean parallel = n >= PARALLEL_THRESHOLD && Exchange.getParallelism() > 1;
+        if (rows.ints[col] != null)
+            return sortInts(rows.ints[col], n, asc, parallel);
+        return sortStrings(rows.fields[col], n, asc, parallel);
+    }
+
+    /**
+     * Sort (key, row number) pairs packed into longs; ~key reverses the order
+     * of keys for a descending sort, and the row number breaks ties.
+     */
+    private static int[] sortInts(int[] col, int n, boolean asc, boolean parallel) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int key = asc ? col[i] : ~col[i];
+            keys[i] = ((long) key << 32) | i;
+        }
+        if (parallel)
+            Arrays.parallelSort(keys);
+        else
+            Arrays.sort(keys);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++)
+            result[i] = (int) keys[i];
+        return result;
+    }
+
+    /**
+     * @return the first four characters of s as an unsigned big-endian number,
+     *         shifted into signed order, so prefixes compare as String.compareTo
+     *         does. Shorter strings are padded with zeros, which ties them
+     *         with strings that continue with '\0'; full comparison separates
+     *         those.
+     */
+    static long prefixKey(String s) {
+        long key = 0;
+        for (int i = 0; i < 4; i++)
+            key = (key << 16) | (i < s.length() ? s.charAt(i) : 0);
+        return key ^ Long.MIN_VALUE;
+    }
+
+    private static int[] sortStrings(Field[] col, int n, boolean asc, boolean parallel) {
+        String[] values = new String[n];
+        long[] prefixes = new long[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = ((StringField) col[i]).getValue();
+            long key = prefixKey(values[i]);
+            prefixes[i] = asc ? key : ~key;
+            order[i] = i;
+        }
+        MergeSort sort = new MergeSort(values, prefixes, asc, order, new int[n], 0, n,
+                                       parallel ? PARALLEL_THRESHOLD / 4 : n);
+        if (parallel)
+            sort.invoke();
+        else
+            sort.compute();
+        return order;
+    }
+
+    /**
+     * A stable merge sort of row numbers by their string keys, which forks
+     * halves longer than a cutoff.
+     */
+    private static class MergeSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int INSERTION_SORT_ROWS = 16;
+
+        private final String[] values;
+        private final long[] prefixes;
+        private final boolean asc;
+        private final int[] order, tmp;
+        private final int lo, hi, cutoff;
+
+        MergeSort(String[] values, long[] prefixes, boolean asc, int[] order,
+                  int[] tmp, int lo, int hi, int cutoff) {
+            this.values = values;
+            this.prefixes = prefixes;
+            this.asc = asc;
+            this.order = order;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.cutoff = cutoff;
+        }
+
+        private int compare(int a, int b) {
+            long pa = prefixes[a], pb = prefixes[b];
+            if (pa != pb)
+                return pa < pb ? -1 : 1;
+            int c = values[a].compareTo(values[b]);
+            return asc ? c : -c;
+        }
+
+        protected void compute() {
+            if (hi - lo <= INSERTION_SORT_ROWS) {
+                for (int i = lo + 1; i < hi; i++) {
+                    int r = order[i];
+                    int j = i - 1;
+                    while (j >= lo && compare(order[j], r) > 0) {
+                        order[j + 1] = order[j];
+                        j--;
+                    }
+                    order[j + 1] = r;
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            MergeSort left = new MergeSort(values, prefixes, asc, order, tmp, lo, mid, cutoff);
+            MergeSort right = new MergeSort(values, prefixes, asc, order, tmp, mid, hi, cutoff);
+            if (hi - lo > cutoff) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+            if (compare(order[mid - 1], order[mid]) <= 0)
+                return;
+            System.arraycopy(order, lo, tmp, lo, hi - lo);
+            int i = lo, j = mid, k = lo;
+            while (i < mid && j < hi)
+                order[k++] = compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+            while (i < mid)
+                order[k++] = tmp[i++];
+            while (j < hi)
+                order[k++] = tmp[j++];
+        }
+    }
+}
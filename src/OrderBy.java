@@ -5,17 +5,38 @@ import java.util.*;
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
  */
-public class OrderBy extends Operator {
+public class OrderBy extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
 
+    /**
+     * Default number of rows sorted in memory at once. A larger child is
+     * sorted in runs that are written to disk and merged, see {@link #open}.
+     */
+    public final static int MEMORY_BUDGET = 100000;
+
+    private int memoryBudget = MEMORY_BUDGET;
+
+    /**
+     * Set the number of rows this operator keeps in memory at once.
+     */
+    public void setMemoryBudget(int rows) {
+        memoryBudget = Math.max(1, rows);
+    }
+
+    // the child's rows, and the order to return them in, if they fit in
+    // memory; otherwise the merge of the sorted runs they were spilled to
+    private transient TupleBatch rows;
+    private transient int[] order;
+    private transient int pos;
+    private transient List<SpillFile> runs;
+    private transient Merge merge;
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -53,24 +74,106 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * Reads the child's rows into memory and sorts them. If there are more
+     * than the memory budget, each budget's worth is sorted and written to a
+     * temporary file as a run, and the runs are merged as rows are returned,
+     * in passes of at most {@link #mergeFanout} runs.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        rows = new TupleBatch(td);
+        runs = new ArrayList<SpillFile>();
+        BatchIterator batches = BatchAdapter.of(child);
+        TupleBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                rows.addRow(batch, i);
+                if (rows.size() >= memoryBudget)
+                    spillRun();
+            }
+        }
+        if (runs.isEmpty()) {
+            order = sortedOrder();
+        } else {
+            if (!rows.isEmpty())
+                spillRun();
+            rows = null;
+            int fanout = mergeFanout();
+            while (runs.size() > fanout) {
+                List<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += fanout)
+                    merged.add(mergeRuns(runs.subList(i, Math.min(i + fanout, runs.size()))));
+                runs = merged;
+            }
+            merge = new Merge(runs, memoryBudget / runs.size());
+        }
+        pos = 0;
         super.open();
     }
 
+    /**
+     * @return the number of runs merged at once: as many as can each have a
+     *         batch of rows in memory within the memory budget.
+     */
+    private int mergeFanout() {
+        return Math.max(2, memoryBudget / TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * Sort the rows in memory, write them to a new run and clear them.
+     */
+    private void spillRun() throws DbException {
+        int[] sorted = sortedOrder();
+        SpillFile run = new SpillFile(td);
+        for (int i = 0; i < sorted.length; i++)
+            run.add(rows, sorted[i]);
+        runs.add(run);
+        rows.clear();
+    }
+
+    /**
+     * Merge some runs into one new run, deleting them.
+     */
+    private SpillFile mergeRuns(List<SpillFile> in) throws DbException {
+        SpillFile out = new SpillFile(td);
+        Merge m = new Merge(in, memoryBudget / in.size());
+        while (m.hasNext()) {
+            out.add(m.batch(), m.row());
+            m.advance();
+        }
+        for (SpillFile f : in)
+            f.delete();
+        return out;
+    }
+
+    /**
+     * @return the row numbers of rows, in sorted order. Rows with equal keys
+     *         keep the order they were read in.
+     * @see NormalizedKeySort
+     */
+    private int[] sortedOrder() {
+        return NormalizedKeySort.sortedOrder(rows, orderByField, asc);
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        rows = null;
+        order = null;
+        merge = null;
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        pos = 0;
+        if (merge != null)
+            merge = new Merge(runs, memoryBudget / runs.size());
     }
 
     /**
@@ -82,12 +185,142 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (merge != null) {
+            if (!merge.hasNext())
+                return null;
+            Tuple t = merge.batch().getTuple(merge.row());
+            merge.advance();
+            return t;
+        }
+        if (order != null && pos < order.length) {
+            return rows.getTuple(order[pos++]);
         } else
             return null;
     }
 
+    /**
+     * Returns the next batch of rows in the ordering.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (merge != null) {
+            if (!merge.hasNext())
+                return null;
+            TupleBatch batch = new TupleBatch(td);
+            while (!batch.isFull() && merge.hasNext()) {
+                batch.addRow(merge.batch(), merge.row());
+                merge.advance();
+            }
+            return batch;
+        }
+        if (order == null || pos == order.length)
+            return null;
+        TupleBatch batch = new TupleBatch(td);
+        while (!batch.isFull() && pos < order.length)
+            batch.addRow(rows, order[pos++]);
+        return batch;
+    }
+
+    /**
+     * A k-way merge of sorted runs using a tree of losers. Each run is read
+     * a batch at a time; tree[0] is the run with the smallest current row,
+     * and each internal node t of the tree (children 2t and 2t+1, with run
+     * r at leaf k+r) holds the run that lost the comparison there. Advancing
+     * the winner replays only the comparisons on its path to the root, about
+     * log2(k) of them. Ties go to the earlier run, so the merge is stable.
+     */
+    private class Merge {
+        private final List<SpillFile> runs;
+        private final int readRows;
+        private final TupleBatch[] heads;
+        private final int[] rowOf;
+        private final int[] tree;
+        private final int k;
+        private final FieldComparator cmp = new FieldComparator(asc);
+
+        Merge(List<SpillFile> runs, int readRows) throws DbException {
+            this.runs = runs;
+            this.readRows = Math.max(1, Math.min(readRows, TupleBatch.DEFAULT_SIZE));
+            k = runs.size();
+            heads = new TupleBatch[k];
+            rowOf = new int[k];
+            for (int r = 0; r < k; r++) {
+                runs.get(r).rewind();
+                heads[r] = runs.get(r).next(this.readRows);
+            }
+            tree = new int[Math.max(1, k)];
+            tree[0] = k == 1 ? 0 : build(1);
+        }
+
+        // returns the winner of the subtree under node, recording losers
+        private int build(int node) {
+            if (node >= k)
+                return node - k;
+            int a = build(2 * node), b = build(2 * node + 1);
+            if (before(a, b)) {
+                tree[node] = b;
+                return a;
+            }
+            tree[node] = a;
+            return b;
+        }
+
+        /**
+         * @return true if run a's current row comes before run b's. Runs
+         *         that are used up come after every other run.
+         */
+        private boolean before(int a, int b) {
+            if (heads[b] == null)
+                return heads[a] != null || a < b;
+            if (heads[a] == null)
+                return false;
+            int c;
+            if (heads[a].ints[orderByField] != null) {
+                int x = heads[a].ints[orderByField][rowOf[a]];
+                int y = heads[b].ints[orderByField][rowOf[b]];
+                c = x < y ? -1 : (x == y ? 0 : 1);
+                if (!asc)
+                    c = -c;
+            } else {
+                c = cmp.compare(heads[a].getField(rowOf[a], orderByField),
+                                heads[b].getField(rowOf[b], orderByField));
+            }
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        boolean hasNext() {
+            return k > 0 && heads[tree[0]] != null;
+        }
+
+        /** @return the batch holding the smallest remaining row. */
+        TupleBatch batch() {
+            return heads[tree[0]];
+        }
+
+        /** @return the smallest remaining row's position in batch(). */
+        int row() {
+            return rowOf[tree[0]];
+        }
+
+        /**
+         * Move past the smallest remaining row.
+         */
+        void advance() throws DbException {
+            int w = tree[0];
+            if (++rowOf[w] == heads[w].size()) {
+                heads[w] = runs.get(w).next(readRows);
+                rowOf[w] = 0;
+            }
+            for (int t = (w + k) / 2; t > 0; t /= 2) {
+                if (before(tree[t], w)) {
+                    int loser = w;
+                    w = tree[t];
+                    tree[t] = loser;
+                }
+            }
+            tree[0] = w;
+        }
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -99,25 +332,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * PageRangeScan is an access method that reads a contiguous range of the
+ * pages of a {@link HeapFile}. Several of them over disjoint ranges cover a
+ * table between them, which lets a scan be split across worker threads (see
+ * {@link Gather}).
+ */
+public class PageRangeScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    int myFirstPage;
+    int myEndPage;
+
+    /**
+     * Creates a scan over pages [firstPage, endPage) of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan})
+     * @param firstPage
+     *            the first page to read
+     * @param endPage
+     *            one past the last page to read
+     */
+    public PageRangeScan(TransactionId tid, int tableid, String tableAlias,
+            int firstPage, int endPage) {
+        super(tid, tableid, tableAlias);
+        myFirstPage = firstPage;
+        myEndPage = endPage;
+    }
+
+    public int getFirstPage() {
+        return myFirstPage;
+    }
+
+    public int getEndPage() {
+        return myEndPage;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(myTableID);
+        db_it = hf.iterator(myTID, myFirstPage, myEndPage);
+        db_it.open();
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelScan reads a {@link HeapFile}, and applies a list of filters to
+ * it, on the threads of a shared fork/join pool. The table is cut into
+ * morsels of a few pages each; every morsel is scanned and filtered by one
+ * worker, and idle workers steal the morsels that are still waiting from
+ * busy ones. Workers that hit uncached pages or more matching rows simply
+ * finish fewer morsels, so the work stays balanced without any planning.
+ * <p>
+ * Rows come back through a bounded queue, in no particular order.
+ */
+public class ParallelScan extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages in a morsel unless told otherwise. */
+    public static final int DEFAULT_MORSEL_PAGES = 8;
+
+    /** Put on the queue once every morsel is done. */
+    private static final Object DONE = new Object();
+
+    private static ForkJoinPool pool;
+
+    /**
+     * @return the pool morsels run in, sized to
+     *         {@link Exchange#getParallelism}.
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null || pool.getParallelism() != getParallelism()) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(getParallelism());
+        }
+        return pool;
+    }
+
+    TransactionId myTID;
+    int myTableID;
+    String myAlias;
+    List<Predicate> myFilters;
+    int myMorselPages;
+    SeqScan myScan;
+
+    transient BlockingQueue<Object> queue;
+    transient volatile boolean stopped;
+    transient volatile Throwable error;
+    transient Thread runner;
+    transient boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan})
+     * @param filters
+     *            the predicates a row must pass to be returned, applied in
+     *            order
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> filters) {
+        this(tid, tableid, tableAlias, filters, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param morselPages
+     *            the number of pages each worker reads at a time
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> filters, int morselPages) {
+        super("ParallelScan(" + tableAlias + ")");
+        myTID = tid;
+        myTableID = tableid;
+        myAlias = tableAlias;
+        myFilters = new ArrayList<Predicate>(filters);
+        myMorselPages = Math.max(1, morselPages);
+        myScan = new SeqScan(tid, tableid, tableAlias);
+    }
+
+    public List<Predicate> getFilters() {
+        return myFilters;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myScan.getTupleDesc();
+    }
+
+    /**
+     * Splits a range of pages in half until it is a single morsel, which is
+     * then scanned and filtered in the worker that ends up with it.
+     */
+    class Morsels extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int lo, hi;
+
+        Morsels(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (stopped || error != null)
+                return;
+            if (hi - lo > myMorselPages) {
+                int mid = lo + (hi - lo) / 2;
+                invokeAll(new Morsels(lo, mid), new Morsels(mid, hi));
+                return;
+            }
+            try {
+                scan();
+            } catch (Throwable t) {
+                if (error == null)
+                    error = t;
+            }
+        }
+
+        private void scan() throws Exception {
+            //the filters are tested on each page's bytes as it is read
+            BatchIterator in = new FusedScan(myTID, myTableID, myAlias, myFilters, lo, hi);
+            in.open();
+            try {
+                TupleBatch b;
+                while (!stopped && error == null && (b = in.nextBatch()) != null)
+                    put(b);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Hand a batch to the reader, letting the pool run another worker while
+     * this one waits for room in the queue.
+     */
+    private void put(final Object o) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            boolean put;
+
+            public boolean block() throws InterruptedException {
+                while (!put && !stopped)
+                    put = queue.offer(o, 10, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return put || stopped || (put = queue.offer(o));
+            }
+        });
+    }
+
+    private void start() {
+        final int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(myTableID)).numPages();
+        queue = new ArrayBlockingQueue<Object>(2 * getParallelism());
+        stopped = false;
+        error = null;
+        done = false;
+        final ForkJoinPool p = pool();
+        final BlockingQueue<Object> q = queue;
+        // runs the morsels, then puts the end marker in once they are all done
+        runner = new Thread(getName()) {
+            public void run() {
+                p.invoke(new Morsels(0, pages));
+                try {
+                    while (!stopped && !q.offer(DONE, 10, TimeUnit.MILLISECONDS))
+                        ;
+                } catch (InterruptedException e) {
+                    // stopped; nobody is reading
+                }
+            }
+        };
+        runner.setDaemon(true);
+        runner.start();
+    }
+
+    /**
+     * Stop the workers and wait for every morsel to be given up.
+     */
+    private void stop() {
+        if (runner == null)
+            return;
+        stopped = true;
+        try {
+            runner.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runner = null;
+        queue = null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (queue == null)
+            throw new IllegalStateException("ParallelScan not open");
+        if (done)
+            return null;
+        Object o;
+        try {
+            o = queue.take();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while reading " + getName());
+        }
+        if (o instanceof TupleBatch)
+            return (TupleBatch) o;
+        done = true;
+        if (error != null) {
+            Throwable t = error;
+            stop();
+            rethrow(t);
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        super.rewind();
+        start();
+    }
+
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    /**
+     * A ParallelScan is a leaf; its scan is returned so that query plans
+     * show the table it reads.
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { myScan };
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -50,6 +52,19 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("NOT")) {
+            ZExp negated = wx.getOperand(0);
+            if (!(negated instanceof ZExpression)
+                    || !((ZExpression) negated).getOperator().equals("EXISTS")) {
+                throw new simpledb.ParsingException(
+                        "NOT is only supported before EXISTS.");
+            }
+            processExists(tid, (ZExpression) negated, lp, true);
+        } else if (wx.getOperator().equals("EXISTS")) {
+            processExists(tid, wx, lp, false);
+        } else if (wx.getOperator().equals("IN")
+                || wx.getOperator().equals("NOT IN")) {
+            processIn(tid, wx, lp, wx.getOperator().equals("NOT IN"));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -94,19 +109,8 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    try {
-                        LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                                (ZQuery) ops.elementAt(1));
-                        DbIterator pp = sublp.physicalPlan(tid,
-                                TableStats.getStatsMap(), explain);
-                        lp.addJoin(tab1field, pp, op);
-                    } catch (IOException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    } catch (Zql.ParseException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    }
+                    lp.addJoin(tab1field,
+                            planSubquery(tid, (ZQuery) ops.elementAt(1)), op);
                 } else {
                     tab2field = ((ZConstant) ops.elementAt(1)).getValue();
                     lp.addJoin(tab1field, tab2field, op);
@@ -132,12 +136,156 @@ public class Parser {
 
     }
 
-    public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
-            throws IOException, Zql.ParseException, simpledb.ParsingException {
+    /**
+     * Plan a subquery on its own.
+     */
+    DbIterator planSubquery(TransactionId tid, ZQuery q)
+            throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            return sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        }
+    }
+
+    /**
+     * Add the semi-join of an IN subquery, or the anti-join of a NOT IN
+     * subquery, to a plan.
+     */
+    void processIn(TransactionId tid, ZExpression wx, LogicalPlan lp,
+            boolean anti) throws simpledb.ParsingException {
+        if (wx.nbOperands() != 2
+                || !(wx.getOperand(0) instanceof ZConstant)
+                || ((ZConstant) wx.getOperand(0)).getType() != ZConstant.COLUMNNAME
+                || !(wx.getOperand(1) instanceof ZQuery)) {
+            throw new simpledb.ParsingException(
+                    "Only IN expressions of the form A IN (subquery) are supported, where A is a field.");
+        }
+        DbIterator pp = planSubquery(tid, (ZQuery) wx.getOperand(1));
+        if (pp.getTupleDesc().numFields() != 1) {
+            throw new simpledb.ParsingException(
+                    "The subquery of IN must return one field.");
+        }
+        lp.addJoin(((ZConstant) wx.getOperand(0)).getValue(), pp,
+                Predicate.Op.EQUALS, anti);
+    }
+
+    /**
+     * Add the semi-join of an EXISTS subquery, or the anti-join of a NOT
+     * EXISTS subquery, to a plan. The subquery must refer to the outer query
+     * in a single equality between an inner and an outer field, in its WHERE
+     * clause. It is rewritten as outer IN (SELECT inner ...), with the rest
+     * of the WHERE clause, and planned on its own.
+     */
+    void processExists(TransactionId tid, ZExpression wx, LogicalPlan lp,
+            boolean anti) throws simpledb.ParsingException {
+        if (!(wx.getOperand(0) instanceof ZQuery)) {
+            throw new simpledb.ParsingException("Invalid subquery "
+                    + wx.getOperand(0));
+        }
+        ZQuery q = (ZQuery) wx.getOperand(0);
+        if (q.getGroupBy() != null) {
+            throw new simpledb.ParsingException(
+                    "GROUP BY in EXISTS subqueries is not supported.");
+        }
+        @SuppressWarnings("unchecked")
+        Vector<ZSelectItem> selectList = q.getSelect();
+        for (ZSelectItem si : selectList) {
+            if (si.getAggregate() != null) {
+                throw new simpledb.ParsingException(
+                        "Aggregates in EXISTS subqueries are not supported.");
+            }
+        }
+
+        LogicalPlan sublp = new LogicalPlan();
+        sublp.setQuery(q.toString());
+        addScans(q, sublp);
+
+        Vector<ZExp> conditions = new Vector<ZExp>();
+        if (q.getWhere() != null) {
+            conjuncts(q.getWhere(), conditions);
+        }
+        String outerField = null, innerField = null;
+        for (ZExp c : conditions) {
+            if (!(c instanceof ZExpression)) {
+                throw new simpledb.ParsingException(
+                        "Nested queries are currently unsupported.");
+            }
+            ZExpression cx = (ZExpression) c;
+            int outer = -1;
+            for (int i = 0; i < cx.nbOperands(); i++) {
+                if (isOuterField(cx.getOperand(i), lp, sublp)) {
+                    outer = i;
+                }
+            }
+            if (outer < 0) {
+                processExpression(tid, cx, sublp);
+                continue;
+            }
+            if (outerField != null || !cx.getOperator().equals("=")
+                    || cx.nbOperands() != 2
+                    || !(cx.getOperand(1 - outer) instanceof ZConstant)
+                    || ((ZConstant) cx.getOperand(1 - outer)).getType() != ZConstant.COLUMNNAME
+                    || isOuterField(cx.getOperand(1 - outer), lp, sublp)) {
+                throw new simpledb.ParsingException(
+                        "An EXISTS subquery may only refer to the outer query in one equality between an inner and an outer field.");
+            }
+            outerField = ((ZConstant) cx.getOperand(outer)).getValue();
+            innerField = ((ZConstant) cx.getOperand(1 - outer)).getValue();
+        }
+        if (outerField == null) {
+            throw new simpledb.ParsingException(
+                    "An EXISTS subquery must be correlated with the outer query by an equality.");
+        }
+
+        sublp.addProjectField(innerField, null);
+        DbIterator pp = sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        lp.addJoin(outerField, pp, Predicate.Op.EQUALS, anti);
+    }
+
+    /**
+     * Add the conditions ANDed together in an expression to a list.
+     */
+    private static void conjuncts(ZExp e, Vector<ZExp> conditions) {
+        if (e instanceof ZExpression
+                && ((ZExpression) e).getOperator().equals("AND")) {
+            ZExpression ex = (ZExpression) e;
+            for (int i = 0; i < ex.nbOperands(); i++) {
+                conjuncts(ex.getOperand(i), conditions);
+            }
+        } else {
+            conditions.add(e);
+        }
+    }
+
+    /**
+     * @return true if an operand of a subquery's condition is a field of a
+     *         table of the outer query that the subquery doesn't scan itself.
+     */
+    private static boolean isOuterField(ZExp e, LogicalPlan outer,
+            LogicalPlan inner) {
+        if (!(e instanceof ZConstant)
+                || ((ZConstant) e).getType() != ZConstant.COLUMNNAME) {
+            return false;
+        }
+        String name = ((ZConstant) e).getValue();
+        if (name.indexOf('.') < 0) {
+            return false;
+        }
+        String alias = name.substring(0, name.indexOf('.'));
+        return inner.getTableId(alias) == null && outer.getTableId(alias) != null;
+    }
+
+    /**
+     * Add a scan of each table in the FROM clause of a query to a plan.
+     */
+    private void addScans(ZQuery q, LogicalPlan lp)
+            throws simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
-        LogicalPlan lp = new LogicalPlan();
-        lp.setQuery(q.toString());
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -166,6 +314,13 @@ public class Parser {
                         + fromIt.getTable() + " is not in catalog");
             }
         }
+    }
+
+    public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.setQuery(q.toString());
+        addScans(q, lp);
 
         // now parse the where clause, creating Filter and Join nodes as needed
         ZExp w = q.getWhere();
@@ -182,23 +337,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +358,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +369,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +390,15 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), null);
         }
         // sort the data
 
@@ -279,6 +431,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -387,6 +540,7 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            lp.setLimit(limit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -463,14 +617,41 @@ public class Parser {
         }
     }
 
+    // Zql doesn't parse LIMIT clauses, so a statement's trailing "LIMIT n" is
+    // removed before it is parsed and applied to its query's plan afterwards
+    private static final Pattern LIMIT_CLAUSE =
+        Pattern.compile("(?is)^(.*\\S)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
+    private int limit = LogicalPlan.NO_LIMIT;
+
+    /**
+     * Remove a LIMIT clause from the end of a statement, and remember its
+     * limit, or NO_LIMIT if it has none.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = LogicalPlan.NO_LIMIT;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+        return m.group(1) + m.group(3);
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        s = stripLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +684,12 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; )
+                statement.write(buf, 0, n);
+            String sql = stripLimit(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -581,7 +767,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
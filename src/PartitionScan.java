@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * PartitionScan is an access method that reads only some of the partitions
+ * of a {@link PartitionedFile}, typically those left over after
+ * {@link PartitionedFile#prune} has ruled out the rest.
+ */
+public class PartitionScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    boolean[] myPartitions;
+
+    /**
+     * Creates a scan over some partitions of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a PartitionedFile.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan})
+     * @param partitions
+     *            for each partition of the table, whether to read it
+     */
+    public PartitionScan(TransactionId tid, int tableid, String tableAlias,
+            boolean[] partitions) {
+        super(tid, tableid, tableAlias);
+        myPartitions = partitions;
+    }
+
+    /**
+     * @return for each partition of the table, whether this scan reads it.
+     */
+    public boolean[] getPartitions() {
+        return myPartitions;
+    }
+
+    /**
+     * @return the number of partitions this scan reads.
+     */
+    public int numPartitions() {
+        int n = 0;
+        for (boolean b : myPartitions) {
+            if (b)
+                n++;
+        }
+        return n;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        PartitionedFile pf = (PartitionedFile) Database.getCatalog().getDatabaseFile(myTableID);
+        db_it = pf.iterator(myTID, myPartitions);
+        db_it.open();
+    }
+}
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PartitionedFile is an implementation of a DbFile that splits a table across
+ * several HeapFiles (its partitions) on the value of one column, either by
+ * hash or by range. Each tuple lives in exactly one partition, so a predicate
+ * on the partitioning column rules out whole partitions (see {@link #prune}),
+ * and scans and inserts only touch the partitions that can matter.
+ * <p>
+ * Pages and RecordIds of a PartitionedFile belong to the partition they were
+ * read from; the Catalog registers the partitions alongside the table so the
+ * BufferPool can find them.
+ */
+public class PartitionedFile implements DbFile {
+
+    HeapFile[] myPartitions;
+    int myField;
+    /** Upper bounds (exclusive) of all but the last partition; null for hash partitioning. */
+    Field[] myBounds;
+    TupleDesc myTD;
+    int myId;
+
+    /**
+     * Create a table hash partitioned on a column.
+     *
+     * @param partitions the files to store the partitions in; all must have
+     *            the same TupleDesc.
+     * @param field the column to partition on
+     */
+    public PartitionedFile(HeapFile[] partitions, int field) {
+        this(partitions, field, null);
+    }
+
+    /**
+     * Create a table range partitioned on a column. Partition i holds the
+     * tuples whose value is at least bounds[i-1] and less than bounds[i]; the
+     * first and last partitions are unbounded below and above.
+     *
+     * @param partitions the files to store the partitions in; all must have
+     *            the same TupleDesc.
+     * @param field the column to partition on
+     * @param bounds partitions.length - 1 ascending bounds, or null to hash
+     *            partition instead.
+     */
+    public PartitionedFile(HeapFile[] partitions, int field, Field[] bounds) {
+        if (partitions.length == 0)
+            throw new IllegalArgumentException("no partitions");
+        if (bounds != null && bounds.length != partitions.length - 1)
+            throw new IllegalArgumentException("need " + (partitions.length - 1) + " bounds");
+        myPartitions = partitions;
+        myField = field;
+        myBounds = bounds;
+        myTD = partitions[0].getTupleDesc();
+        for (HeapFile hf : partitions) {
+            if (!hf.getTupleDesc().equals(myTD))
+                throw new IllegalArgumentException("partitions have different TupleDescs");
+        }
+        int[] ids = new int[partitions.length];
+        for (int i = 0; i < partitions.length; i++)
+            ids[i] = partitions[i].getId();
+        myId = Arrays.hashCode(ids);
+    }
+
+    /**
+     * @return the partitions of this table.
+     */
+    public HeapFile[] getPartitions() {
+        return myPartitions;
+    }
+
+    /**
+     * @return the column this table is partitioned on.
+     */
+    public int getPartitionField() {
+        return myField;
+    }
+
+    /**
+     * @return true if this table is range partitioned, false if it is hash
+     *         partitioned.
+     */
+    public boolean isRangePartitioned() {
+        return myBounds != null;
+    }
+
+    /**
+     * @return the partition a tuple with value f in the partitioning column
+     *         belongs in.
+     */
+    public int partitionFor(Field f) {
+        if (myBounds == null)
+            return (f.hashCode() & Integer.MAX_VALUE) % myPartitions.length;
+        for (int i = 0; i < myBounds.length; i++) {
+            if (f.compare(Predicate.Op.LESS_THAN, myBounds[i]))
+                return i;
+        }
+        return myBounds.length;
+    }
+
+    /**
+     * Work out which partitions may hold tuples satisfying a predicate on the
+     * partitioning column.
+     *
+     * @param op the predicate's operator
+     * @param operand the predicate's constant
+     * @return for each partition, false if none of its tuples can satisfy the
+     *         predicate.
+     */
+    public boolean[] prune(Predicate.Op op, Field operand) {
+        boolean[] result = new boolean[myPartitions.length];
+        boolean point = op == Predicate.Op.EQUALS
+            || (op == Predicate.Op.LIKE && operand.getType() == Type.INT_TYPE);
+        if (point) {
+            result[partitionFor(operand)] = true;
+            return result;
+        }
+        for (int i = 0; i < result.length; i++) {
+            if (myBounds == null) {
+                result[i] = true;
+                continue;
+            }
+            Field lo = i == 0 ? null : myBounds[i - 1];
+            Field hi = i == myBounds.length ? null : myBounds[i];
+            switch (op) {
+            case LESS_THAN:
+                result[i] = lo == null || lo.compare(Predicate.Op.LESS_THAN, operand);
+                break;
+            case LESS_THAN_OR_EQ:
+                result[i] = lo == null || lo.compare(Predicate.Op.LESS_THAN_OR_EQ, operand);
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                result[i] = hi == null || hi.compare(Predicate.Op.GREATER_THAN, operand);
+                break;
+            default:
+                result[i] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the partition stored in the HeapFile with the specified id, or
+     *         null if there is none.
+     */
+    public HeapFile getPartition(int fileId) {
+        for (HeapFile hf : myPartitions) {
+            if (hf.getId() == fileId)
+                return hf;
+        }
+        return null;
+    }
+
+    private HeapFile partitionOf(PageId pid) {
+        HeapFile hf = getPartition(pid.getTableId());
+        if (hf == null)
+            throw new IllegalArgumentException("page " + pid + " is not in this table");
+        return hf;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this table, derived from the ids of
+     * its partitions.
+     */
+    public int getId() {
+        return myId;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTD;
+    }
+
+    /**
+     * Returns the total number of pages in all partitions.
+     */
+    public int numPages() {
+        int n = 0;
+        for (HeapFile hf : myPartitions)
+            n += hf.numPages();
+        return n;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        return partitionOf(pid).readPage(pid);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page p) throws IOException {
+        partitionOf(p.getId()).writePage(p);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!myTD.equals(t.getTupleDesc()))
+            throw new DbException("Tuple to be inserted has mismatched Tuple Desc");
+        HeapFile hf = myPartitions[partitionFor(t.getField(myField))];
+        if (hf.numPages() == 0)
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData()));
+        return hf.insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in a table");
+        return partitionOf(t.getRecordId().getPageId()).deleteTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        boolean[] all = new boolean[myPartitions.length];
+        Arrays.fill(all, true);
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of some of the partitions.
+     *
+     * @param tid the transaction to read as a part of
+     * @param partitions for each partition, whether to read it
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean[] partitions) {
+        return new PartitionIterator(tid, partitions);
+    }
+
+    /**
+     * Reads the chosen partitions one after another.
+     */
+    class PartitionIterator extends AbstractDbFileIterator {
+
+        TransactionId myTID;
+        boolean[] chosen;
+        int cur;
+        DbFileIterator it;
+
+        PartitionIterator(TransactionId tid, boolean[] partitions) {
+            myTID = tid;
+            chosen = partitions;
+            cur = myPartitions.length;
+        }
+
+        public void open() {
+            cur = -1;
+            it = null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (it != null)
+                it.close();
+            it = null;
+            cur = myPartitions.length;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (it == null || !it.hasNext()) {
+                if (it != null)
+                    it.close();
+                it = null;
+                do {
+                    cur++;
+                } while (cur < myPartitions.length
+                         && (!chosen[cur] || myPartitions[cur].numPages() == 0));
+                if (cur >= myPartitions.length)
+                    return null;
+                it = myPartitions[cur].iterator(myTID);
+                it.open();
+            }
+            return it.next();
+        }
+    }
+}
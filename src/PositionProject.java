@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PositionProject narrows the tuples of a table down to the few fields a
+ * query needs before the rest are fetched, plus the position of each tuple
+ * in the table's {@link HeapFile} (see {@link HeapFile#getPosition}).
+ * Joins above it then carry only those fields, and a {@link Materialize}
+ * above the joins fetches the rest of each tuple that survives them, by its
+ * position.
+ */
+public class PositionProject extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The suffix of the name of the position field: alias + POSITION. */
+    public static final String POSITION = ".#pos";
+
+    private DbIterator child;
+    private int[] fields;
+    private int tableid;
+    private TupleDesc td;
+    private transient HeapFile file;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            a scan of the table, possibly under filters, returning
+     *            tuples with their record ids
+     * @param fields
+     *            the fields of the child's tuples to keep
+     * @param tableid
+     *            the table the child scans; must be stored in a HeapFile
+     * @param tableAlias
+     *            the alias of the table, which names the position field
+     */
+    public PositionProject(DbIterator child, int[] fields, int tableid,
+            String tableAlias) {
+        this.child = child;
+        this.fields = fields;
+        this.tableid = tableid;
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length + 1];
+        String[] names = new String[fields.length + 1];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        types[fields.length] = Type.INT_TYPE;
+        names[fields.length] = tableAlias + POSITION;
+        td = new TupleDesc(types, names);
+    }
+
+    /** @return the number of fields kept, which the position follows */
+    int numKeptFields() {
+        return fields.length;
+    }
+
+    /** @return the index in the child's tuples of kept field i */
+    int childField(int i) {
+        return fields[i];
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Projects the child's next tuple
+     * onto the kept fields and its position.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        Tuple out = new Tuple(td);
+        out.setRecordId(t.getRecordId());
+        for (int i = 0; i < fields.length; i++)
+            out.setField(i, t.getField(fields[i]));
+        out.setField(fields.length, new IntField(file.getPosition(t.getRecordId())));
+        return out;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
@@ -58,6 +58,8 @@ public class Predicate implements Serializable {
     public int myField;
     public Op myOp;
     public Field myOperand;
+    // this predicate, compiled on first use
+    private transient PredicateCompiler.TupleTest compiled;
 
     public Predicate(int field, Op op, Field operand) {
         myField = field;
@@ -95,8 +97,8 @@ public class Predicate implements Serializable {
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
-     * the constructor. The comparison can be made through Field's compare
-     * method.
+     * the constructor. The comparison is made by code specialized for the
+     * type of the operand and the operator; see {@link #compile}.
      * 
      * @param t
      *            The tuple to compare against
@@ -106,7 +108,79 @@ public class Predicate implements Serializable {
         if(t == null)
             return false;
         else
-            return t.getField(myField).compare(myOp,myOperand);
+            return compile().test(t);
+    }
+
+    /**
+     * @return this predicate compiled into a comparison specialized for the
+     *         type of its operand and its operator, with the same result as
+     *         comparing through Field's compare method.
+     */
+    PredicateCompiler.TupleTest compile() {
+        if(compiled == null)
+            compiled = PredicateCompiler.compile(this);
+        return compiled;
+    }
+
+    /**
+     * Compares every row of a batch to the operand, the way
+     * {@link #filter(Tuple)} compares one tuple. Integer columns are compared
+     * straight from the batch's int array, without creating Fields.
+     * 
+     * @param batch
+     *            The rows to compare against
+     * @param keep
+     *            set to whether each row passes; must have room for every
+     *            row of the batch
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, boolean[] keep) {
+        int n = batch.size();
+        int passed = 0;
+        if (batch.getTupleDesc().getFieldType(myField) != Type.INT_TYPE
+                || !(myOperand instanceof IntField)) {
+            for (int i = 0; i < n; i++) {
+                keep[i] = batch.getField(i, myField).compare(myOp, myOperand);
+                if (keep[i])
+                    passed++;
+            }
+            return passed;
+        }
+
+        int[] col = batch.getIntColumn(myField);
+        int v = ((IntField) myOperand).getValue();
+        switch (myOp) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] == v;
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] != v;
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] > v;
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] >= v;
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] < v;
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++)
+                keep[i] = col[i] <= v;
+            break;
+        }
+        for (int i = 0; i < n; i++) {
+            if (keep[i])
+                passed++;
+        }
+        return passed;
     }
 
     /**
@@ -0,0 +1,148 @@
+package simpledb;
+
+/**
+ * PredicateCompiler turns a {@link Predicate} or {@link JoinPredicate} into
+ * code specialized for the type of its fields and its operator. Comparing a
+ * tuple through {@link Field#compare} switches on the operator and calls
+ * through the Field interface for every tuple; a compiled predicate is a
+ * class of its own for each type and operator, with the operand unboxed
+ * into a final field, so each comparison is a single direct int or String
+ * comparison that the JIT can inline into the loop calling it.
+ */
+class PredicateCompiler {
+
+    /** A compiled {@link Predicate}. */
+    interface TupleTest {
+        boolean test(Tuple t);
+    }
+
+    /** A compiled {@link JoinPredicate}. */
+    interface PairTest {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    /** A compiled comparison of two ints. */
+    interface IntTest {
+        boolean test(int a, int b);
+    }
+
+    private static int intAt(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    private static String stringAt(Tuple t, int i) {
+        return ((StringField) t.getField(i)).getValue();
+    }
+
+    /**
+     * @return a test with the same result as p.filter for any non-null
+     *         tuple whose field has the type of p's operand.
+     */
+    static TupleTest compile(Predicate p) {
+        final int f = p.getField();
+        final Predicate.Op op = p.getOp();
+        final Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return t -> intAt(t, f) == v;
+            case NOT_EQUALS:
+                return t -> intAt(t, f) != v;
+            case GREATER_THAN:
+                return t -> intAt(t, f) > v;
+            case GREATER_THAN_OR_EQ:
+                return t -> intAt(t, f) >= v;
+            case LESS_THAN:
+                return t -> intAt(t, f) < v;
+            case LESS_THAN_OR_EQ:
+                return t -> intAt(t, f) <= v;
+            }
+        } else if (operand instanceof StringField) {
+            final String v = ((StringField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+                return t -> stringAt(t, f).equals(v);
+            case NOT_EQUALS:
+                return t -> !stringAt(t, f).equals(v);
+            case GREATER_THAN:
+                return t -> stringAt(t, f).compareTo(v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return t -> stringAt(t, f).compareTo(v) >= 0;
+            case LESS_THAN:
+                return t -> stringAt(t, f).compareTo(v) < 0;
+            case LESS_THAN_OR_EQ:
+                return t -> stringAt(t, f).compareTo(v) <= 0;
+            case LIKE:
+                return t -> stringAt(t, f).indexOf(v) >= 0;
+            }
+        }
+        return t -> t.getField(f).compare(op, operand);
+    }
+
+    /**
+     * @return a test with the same result as p.filter for any pair of
+     *         non-null tuples whose join fields have the given type.
+     */
+    static PairTest compile(JoinPredicate p, Type type) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+        if (type == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> intAt(t1, f1) == intAt(t2, f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> intAt(t1, f1) != intAt(t2, f2);
+            case GREATER_THAN:
+                return (t1, t2) -> intAt(t1, f1) > intAt(t2, f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> intAt(t1, f1) >= intAt(t2, f2);
+            case LESS_THAN:
+                return (t1, t2) -> intAt(t1, f1) < intAt(t2, f2);
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> intAt(t1, f1) <= intAt(t2, f2);
+            }
+        } else if (type == Type.STRING_TYPE) {
+            switch (op) {
+            case EQUALS:
+                return (t1, t2) -> stringAt(t1, f1).equals(stringAt(t2, f2));
+            case NOT_EQUALS:
+                return (t1, t2) -> !stringAt(t1, f1).equals(stringAt(t2, f2));
+            case GREATER_THAN:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) > 0;
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) >= 0;
+            case LESS_THAN:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) < 0;
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> stringAt(t1, f1).compareTo(stringAt(t2, f2)) <= 0;
+            case LIKE:
+                return (t1, t2) -> stringAt(t1, f1).indexOf(stringAt(t2, f2)) >= 0;
+            }
+        }
+        return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+    }
+
+    /**
+     * @return a test of whether a op b, for comparing int columns directly.
+     */
+    static IntTest compile(Predicate.Op op) {
+        switch (op) {
+        case NOT_EQUALS:
+            return (a, b) -> a != b;
+        case GREATER_THAN:
+            return (a, b) -> a > b;
+        case GREATER_THAN_OR_EQ:
+            return (a, b) -> a >= b;
+        case LESS_THAN:
+            return (a, b) -> a < b;
+        case LESS_THAN_OR_EQ:
+            return (a, b) -> a <= b;
+        default:
+            return (a, b) -> a == b;
+        }
+    }
+}
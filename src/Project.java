@@ -5,12 +5,13 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchIterator batchChild;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -41,6 +42,11 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the index in the child's tuples of field i of this one */
+    int childField(int i) {
+        return outFieldIds.get(i);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -80,6 +86,24 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Reads a batch from the child and projects out its columns. Columns are
+     * shared with the child's batch rather than copied.
+     * 
+     * @return The next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null)
+            batchChild = BatchAdapter.of(child);
+        TupleBatch batch = batchChild.nextBatch();
+        if (batch == null)
+            return null;
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = outFieldIds.get(i);
+        return batch.project(fields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -90,6 +114,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
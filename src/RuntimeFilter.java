@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * RuntimeFilter summarizes the join keys of the build side of a
+ * {@link HashEquiJoin}: a {@link BloomFilter} of the keys and, for int keys,
+ * their minimum and maximum. Once the build side has been read, the join
+ * hands the filter down to the scan under its probe side (see
+ * {@link #publish}), which then drops the rows whose key can't find a match
+ * before they are passed up the plan. A {@link FusedScan} tests int keys on
+ * the page's bytes, before the tuple is decoded.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // hash codes of the keys added so far; the Bloom filter is sized for
+    // them once they are all known
+    private int[] hashes = new int[1024];
+    private int count = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private BloomFilter bloom;
+
+    /**
+     * Add a join key: an Integer for int keys, or the Field otherwise.
+     */
+    void add(Object key) {
+        if (key instanceof Integer) {
+            int v = (Integer) key;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        if (count == hashes.length)
+            hashes = Arrays.copyOf(hashes, 2 * count);
+        hashes[count++] = key.hashCode();
+    }
+
+    /**
+     * Build the Bloom filter of the keys added. No more keys may be added.
+     */
+    void finish() {
+        bloom = new BloomFilter(count);
+        for (int i = 0; i < count; i++)
+            bloom.addHash(hashes[i]);
+        hashes = null;
+    }
+
+    /**
+     * @return false if the int key v was definitely not added, true if it
+     *         may have been.
+     */
+    public boolean mightContain(int v) {
+        return v >= min && v <= max && bloom.mightContainHash(v);
+    }
+
+    /**
+     * @return false if the key f was definitely not added, true if it may
+     *         have been.
+     */
+    public boolean mightContain(Field f) {
+        if (f instanceof IntField)
+            return mightContain(((IntField) f).getValue());
+        return bloom.mightContainHash(f.hashCode());
+    }
+
+    /**
+     * Hand a filter down to the scan under a plan. Only {@link Filter}s and
+     * projections ({@link Project}, {@link PositionProject}) are looked
+     * through, since the rows they return are rows of the scan, with the
+     * field found by its index in their child.
+     *
+     * @param plan the plan whose rows will be probed
+     * @param field the field of plan's rows that will be probed
+     * @param f the filter of the keys the probed field must match
+     * @return true if a scan took the filter
+     */
+    static boolean publish(DbIterator plan, int field, RuntimeFilter f) {
+        while (true) {
+            if (plan instanceof Filter) {
+                plan = ((Filter) plan).getChildren()[0];
+            } else if (plan instanceof Project) {
+                field = ((Project) plan).childField(field);
+                plan = ((Project) plan).getChildren()[0];
+            } else if (plan instanceof PositionProject) {
+                PositionProject pp = (PositionProject) plan;
+                if (field >= pp.numKeptFields())
+                    return false;
+                field = pp.childField(field);
+                plan = pp.getChildren()[0];
+            } else {
+                break;
+            }
+        }
+        if (!(plan instanceof SeqScan))
+            return false;
+        return ((SeqScan) plan).setRuntimeFilter(field, f);
+    }
+}
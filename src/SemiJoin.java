@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SemiJoin returns the rows of child1 that match at least one row of child2
+ * under a join predicate, each once and with only child1's fields; as an
+ * anti-join it returns the rows of child1 that match no row of child2
+ * instead. These are the joins of IN, EXISTS, NOT IN and NOT EXISTS
+ * subqueries (see {@link LogicalPlan#addJoin(String, DbIterator,
+ * Predicate.Op, boolean)}).
+ * <p>
+ * The distinct join fields of child2 are hashed in memory, so an equality
+ * is tested with one lookup per row of child1, and each row of either child
+ * is read once. Other predicates compare the row with each distinct value.
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private boolean anti;
+
+    // the distinct join fields of child2, once child2 has been read
+    transient private HashSet<Field> keys = null;
+    transient private Field[] values = null;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate rows of the children must satisfy to match
+     * @param child1
+     *            Iterator for the rows to return
+     * @param child2
+     *            Iterator for the rows to match them with
+     * @param anti
+     *            true to return the rows of child1 that match no row of
+     *            child2, false for those that match some row
+     */
+    public SemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean anti) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if this returns the rows of child1 with no match */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        keys = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        keys = null;
+        values = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // child2's keys are kept
+        child1.rewind();
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        keys = new HashSet<Field>();
+        while (child2.hasNext())
+            keys.add(child2.next().getField(pred.getField2()));
+        values = keys.toArray(new Field[keys.size()]);
+    }
+
+    private boolean matches(Field f) {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return keys.contains(f);
+        for (Field v : values) {
+            if (f.compare(pred.getOperator(), v))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next row of child1 that matches some row of child2, or
+     * that matches none for an anti-join.
+     *
+     * @return The next row, or null if there are no more rows
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (keys == null)
+            build();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t.getField(pred.getField1())) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
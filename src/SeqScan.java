@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -110,10 +110,80 @@ public class SeqScan implements DbIterator {
         return db_it.next();
     }
 
+    /**
+     * Returns the next batch of up to {@link TupleBatch#DEFAULT_SIZE} tuples
+     * of the table.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(db_it == null)
+            throw new IllegalStateException("SeqScan not open");
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        while(!batch.isFull() && db_it.hasNext())
+            batch.addTuple(db_it.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
     public void close() {
         db_it = null;
     }
 
+    /**
+     * Drop the tuples whose field can't be in a runtime filter, from now
+     * until the scan is closed.
+     *
+     * @return false if the scan isn't open
+     */
+    public boolean setRuntimeFilter(int field, RuntimeFilter f) {
+        if (db_it == null)
+            return false;
+        if (!(db_it instanceof RuntimeFilteredIterator))
+            db_it = new RuntimeFilteredIterator(db_it);
+        ((RuntimeFilteredIterator) db_it).setFilter(field, f);
+        return true;
+    }
+
+    /**
+     * Passes on the tuples of another iterator that pass a runtime filter.
+     */
+    static class RuntimeFilteredIterator extends AbstractDbFileIterator {
+
+        DbFileIterator it;
+        int field;
+        RuntimeFilter filter;
+
+        RuntimeFilteredIterator(DbFileIterator it) {
+            this.it = it;
+        }
+
+        void setFilter(int field, RuntimeFilter filter) {
+            this.field = field;
+            this.filter = filter;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            it.rewind();
+        }
+
+        public void close() {
+            super.close();
+            it.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (filter.mightContain(t.getField(field)))
+                    return t;
+            }
+            return null;
+        }
+    }
+
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
             db_it.close();
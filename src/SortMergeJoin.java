@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are both sorted in ascending order of
+ * their join fields, by walking through them side by side. It handles
+ * equality and the range predicates (<, <=, >, >=); NOT_EQUALS and LIKE
+ * can't be merged and are left to {@link Join}.
+ * <p>
+ * For an equality join the inner side is streamed. The run of inner rows
+ * matching the current outer key is marked by buffering it, and reset to
+ * for each following outer row with the same key, so neither child is ever
+ * rewound. For a range join every outer row matches a prefix or a suffix of
+ * the inner side, so the inner side is buffered once and the mark is the
+ * boundary of that prefix or suffix, which only moves forward as the outer
+ * keys grow. The planner only merge joins a range predicate if the inner
+ * side is expected to fit in {@link #RANGE_BUFFER_SIZE} rows.
+ * <p>
+ * The output is in ascending order of the outer join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private static final FieldComparator ASC = new FieldComparator(true);
+
+    /**
+     * Largest number of inner rows a range join should be planned to
+     * buffer (see {@link JoinOptimizer#instantiateJoin(LogicalJoinNode,
+     * DbIterator, DbIterator, int)}).
+     */
+    public final static int RANGE_BUFFER_SIZE = 20000;
+
+    /**
+     * @return true if a predicate with this operator can be evaluated by a
+     *         SortMergeJoin.
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+            || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+            || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            the left(outer) relation, sorted ascending on p's field1
+     * @param child2
+     *            the right(inner) relation, sorted ascending on p's field2
+     * @throws IllegalArgumentException if p's operator isn't supported
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("can't merge join on " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    // the current outer row
+    transient private Tuple outer;
+    // inner rows: the current run for an equality join, all of them otherwise
+    transient private ArrayList<Tuple> inner;
+    // the rows of inner that match outer are [from, to); pos is the next one
+    transient private int from, to, pos;
+    // equality join only: the key of the buffered run, and the inner row
+    // after it
+    transient private Field runKey;
+    transient private Tuple next2;
+    // range join only: see matchRange
+    transient private int mark;
+    transient private boolean started;
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        started = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        inner = null;
+        outer = null;
+        next2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        started = false;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        started = true;
+        inner = new ArrayList<Tuple>();
+        outer = null;
+        runKey = null;
+        from = to = pos = mark = 0;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            next2 = child2.hasNext() ? child2.next() : null;
+        } else {
+            while (child2.hasNext())
+                inner.add(child2.next());
+        }
+    }
+
+    private int compare(Field a, Field b) {
+        return ASC.compare(a, b);
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Find the inner rows matching a new outer row with an equality
+     * predicate: reset to the marked run if the key hasn't changed,
+     * otherwise skip smaller inner keys and mark the run of equal ones.
+     */
+    private void matchEquals(Field key) throws DbException, TransactionAbortedException {
+        if (runKey != null && compare(key, runKey) == 0) {
+            pos = from;
+            return;
+        }
+        while (next2 != null && compare(next2.getField(pred.getField2()), key) < 0)
+            next2 = child2.hasNext() ? child2.next() : null;
+        inner.clear();
+        runKey = null;
+        if (next2 != null && compare(next2.getField(pred.getField2()), key) == 0) {
+            runKey = next2.getField(pred.getField2());
+            while (next2 != null && compare(next2.getField(pred.getField2()), runKey) == 0) {
+                inner.add(next2);
+                next2 = child2.hasNext() ? child2.next() : null;
+            }
+        }
+        from = pos = 0;
+        to = inner.size();
+    }
+
+    /**
+     * Find the inner rows matching a new outer row with a range predicate.
+     * mark is the number of inner keys below key (for <= and >) or at most
+     * key (for < and >=), which never shrinks as key grows.
+     */
+    private void matchRange(Field key) {
+        Predicate.Op op = pred.getOperator();
+        boolean strictlyBelow = op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN;
+        while (mark < inner.size()) {
+            int c = compare(inner.get(mark).getField(pred.getField2()), key);
+            if (strictlyBelow ? c >= 0 : c > 0)
+                break;
+            mark++;
+        }
+        if (op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            // outer < inner: the inner keys above the mark
+            from = mark;
+            to = inner.size();
+        } else {
+            // outer > inner: the inner keys below the mark
+            from = 0;
+            to = mark;
+        }
+        pos = from;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!started)
+            start();
+        while (true) {
+            if (outer != null && pos < to)
+                return merge(outer, inner.get(pos++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            Field key = outer.getField(pred.getField1());
+            if (pred.getOperator() == Predicate.Op.EQUALS)
+                matchEquals(key);
+            else
+                matchRange(key);
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file that operators write rows to when they don't
+ * fit in memory, and read back later in the order they were written. Rows
+ * are written without their RecordIds. The file is created when the first
+ * row is added and deleted by {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    final TupleDesc td;
+    File file;
+    DataOutputStream out;
+    DataInputStream in;
+    int rows;
+    int read;
+
+    /**
+     * Create an empty spill file for rows of the given schema.
+     */
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows written to the file.
+     */
+    public int size() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    private void startWriting() throws DbException {
+        try {
+            if (file == null) {
+                file = File.createTempFile("spill", ".dat");
+                file.deleteOnExit();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } catch (IOException e) {
+            throw new DbException("couldn't create spill file: " + e.getMessage());
+        }
+    }
+
+    private void writeField(Field f) throws IOException {
+        if (f.getType() == Type.INT_TYPE)
+            out.writeInt(((IntField) f).getValue());
+        else
+            out.writeUTF(((StringField) f).getValue());
+    }
+
+    /**
+     * Append a row of a batch with this file's schema.
+     */
+    public void add(TupleBatch b, int row) throws DbException {
+        if (out == null)
+            startWriting();
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (b.ints[i] != null)
+                    out.writeInt(b.ints[i][row]);
+                else
+                    writeField(b.fields[i][row]);
+            }
+        } catch (IOException e) {
+            throw new DbException("couldn't write spill file: " + e.getMessage());
+        }
+        rows++;
+    }
+
+    /**
+     * Append a tuple with this file's schema.
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            startWriting();
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                writeField(t.getField(i));
+        } catch (IOException e) {
+            throw new DbException("couldn't write spill file: " + e.getMessage());
+        }
+        rows++;
+    }
+
+    private void closeStreams() {
+        try {
+            if (out != null)
+                out.close();
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // nothing more will be read or written
+        }
+        out = null;
+        in = null;
+    }
+
+    /**
+     * Start reading the file from its first row. Rows may be added again
+     * afterwards; they go at the end of the file.
+     */
+    public void rewind() throws DbException {
+        closeStreams();
+        read = 0;
+        if (file == null)
+            return;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("couldn't read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if rows remain to be read since the last rewind.
+     */
+    public boolean hasNext() {
+        return in != null && read < rows;
+    }
+
+    /**
+     * Read the next rows of the file.
+     *
+     * @param max the largest number of rows to return
+     * @return a batch of up to max rows, or null if every row has been read
+     *         since the last rewind.
+     */
+    public TupleBatch next(int max) throws DbException {
+        if (!hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(td, Math.min(max, rows - read));
+        try {
+            while (!b.isFull() && read < rows) {
+                int row = b.size;
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (b.ints[i] != null)
+                        b.ints[i][row] = in.readInt();
+                    else
+                        b.fields[i][row] = new StringField(in.readUTF(), Type.STRING_LEN);
+                }
+                b.size++;
+                read++;
+            }
+        } catch (IOException e) {
+            throw new DbException("couldn't read spill file: " + e.getMessage());
+        }
+        return b;
+    }
+
+    /**
+     * @return a DbIterator over the rows of this file, which deletes the file
+     *         when it is closed.
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+            private static final long serialVersionUID = 1L;
+            private TupleBatch batch;
+            private int row;
+
+            public void open() throws DbException {
+                rewind();
+            }
+
+            public boolean hasNext() throws DbException {
+                if (batch != null && row < batch.size())
+                    return true;
+                batch = SpillFile.this.next(TupleBatch.DEFAULT_SIZE);
+                row = 0;
+                return batch != null;
+            }
+
+            public Tuple next() throws DbException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return batch.getTuple(row++);
+            }
+
+            public void rewind() throws DbException {
+                SpillFile.this.rewind();
+                batch = null;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                delete();
+                batch = null;
+            }
+        };
+    }
+
+    /**
+     * Remove the file and forget its rows.
+     */
+    public void delete() {
+        closeStreams();
+        if (file != null)
+            file.delete();
+        file = null;
+        rows = 0;
+        read = 0;
+    }
+}
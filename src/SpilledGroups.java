@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * SpilledGroups holds partial aggregates that an Aggregator has written to
+ * disk because it had too many groups to keep in memory. Each partial
+ * aggregate is a tuple whose first fields are its group; they are split over
+ * FANOUT SpillFiles by a hash of the group, so every group's partials end up
+ * in the same file, and each file holds a fraction of the groups that can
+ * be merged in memory on its own. A file that still has too many groups is
+ * split again at the next level, with a different hash.
+ */
+class SpilledGroups {
+
+    /** Number of files the partial aggregates are split into. */
+    static final int FANOUT = 16;
+
+    /** Deepest level files are split to; groups past it are kept in memory. */
+    static final int MAX_LEVEL = 6;
+
+    final TupleDesc td;
+    final int keyFields;
+    final int level;
+    private final SpillFile[] parts = new SpillFile[FANOUT];
+
+    /**
+     * @param td the schema of the partial aggregates
+     * @param keyFields how many of the first fields of td are the group
+     * @param level how many times the groups have been split before
+     */
+    SpilledGroups(TupleDesc td, int keyFields, int level) {
+        this.td = td;
+        this.keyFields = keyFields;
+        this.level = level;
+    }
+
+    private int partitionOf(Tuple state) {
+        long h = level * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < keyFields; i++)
+            h = h * 31 + state.getField(i).hashCode();
+        h = BloomFilter.mix(h);
+        return (int) ((h >>> 40) % FANOUT);
+    }
+
+    /**
+     * Write a partial aggregate to the file of its group.
+     */
+    void add(Tuple state) throws DbException {
+        int p = partitionOf(state);
+        if (parts[p] == null)
+            parts[p] = new SpillFile(td);
+        parts[p].add(state);
+    }
+
+    /**
+     * @return file i, or null if no group hashed to it.
+     */
+    SpillFile partition(int i) {
+        return parts[i];
+    }
+
+    /**
+     * @return true if groups found in one of these files can be split
+     *         further.
+     */
+    boolean canSplit() {
+        return level + 1 < MAX_LEVEL;
+    }
+
+    void delete() {
+        for (SpillFile f : parts) {
+            if (f != null)
+                f.delete();
+        }
+    }
+}
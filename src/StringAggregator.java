@@ -23,6 +23,9 @@ public class StringAggregator implements Aggregator {
     boolean noGroup;
     HashMap<Field,AggregateData> aggMap;
     int aggregateIndex;
+    int memoryBudget = IntegerAggregator.MAX_GROUPS;
+    //partial counts of groups that didn't fit in memory, or null
+    SpilledGroups spilled;
 
     public class AggregateData{
         int myCount;
@@ -88,50 +91,152 @@ public class StringAggregator implements Aggregator {
 
     }
 
-public void mergeTupleIntoGroup(Tuple tup) {
+public void mergeTupleIntoGroup(Tuple tup) throws DbException {
 
         Field myField;
         if(noGroup)
             myField = null;
         else
             myField = tup.getField(myGbField);
+        mergeIntoGroup(myField);
+    }
+
+    public void mergeBatchIntoGroups(TupleBatch batch) throws DbException {
+        for(int i = 0; i < batch.size(); i++)
+            mergeIntoGroup(noGroup ? null : batch.getField(i, myGbField));
+    }
+
+    public void setMemoryBudget(int groups) {
+        memoryBudget = Math.max(1, groups);
+    }
+
+    /**
+     * Count one more value in a group.
+     *
+     * @param myField the group, or null if there is no grouping
+     */
+    void mergeIntoGroup(Field myField) throws DbException {
+        mergeCount(myField, 1);
+        if(!noGroup && aggMap.size() > memoryBudget){
+            spillGroups();
+        }
+    }
+
+    /**
+     * Count some more values in a group.
+     */
+    void mergeCount(Field myField, int count) {
 
         AggregateData myFieldData = aggMap.get(myField);
 
         //if new field, add to aggMap
         if(myFieldData == null){
-            myFieldData = new AggregateData(1);
+            myFieldData = new AggregateData(count);
             aggMap.put(myField,myFieldData);
         }else{
-            myFieldData.incCount();
-            aggMap.put(myField,myFieldData);
+            myFieldData.myCount += count;
         }
 
     }
 
+    /**
+     * Write the counts of the groups in memory to disk, by group, as
+     * (group, count) tuples, and forget them.
+     */
+    void spillGroups() throws DbException {
+        if(spilled == null){
+            spilled = new SpilledGroups(new TupleDesc(new Type[]{ myGbFieldType,
+                        Type.INT_TYPE }), 1, 0);
+        }
+        spillGroups(spilled);
+    }
+
+    private void spillGroups(SpilledGroups to) throws DbException {
+        Tuple state = new Tuple(to.td);
+        for(Map.Entry<Field,AggregateData> e : aggMap.entrySet()){
+            state.setField(0, e.getKey());
+            state.setField(1, new IntField(e.getValue().getCount()));
+            to.add(state);
+        }
+        aggMap = new HashMap<Field,AggregateData>();
+    }
+
+    /**
+     * Add up the counts in each of a set of spilled files and write the
+     * results to out. A file with more groups than the memory budget is
+     * split into another set of files first.
+     */
+    private void mergeSpilled(SpilledGroups groups, SpillFile out) throws DbException {
+        for(int p = 0; p < SpilledGroups.FANOUT; p++){
+            SpillFile f = groups.partition(p);
+            if(f == null){
+                continue;
+            }
+            SpilledGroups split = null;
+            f.rewind();
+            TupleBatch b;
+            while((b = f.next(TupleBatch.DEFAULT_SIZE)) != null){
+                for(int i = 0; i < b.size(); i++){
+                    mergeCount(b.getField(i, 0), b.ints[1][i]);
+                    if(aggMap.size() > memoryBudget && groups.canSplit()){
+                        if(split == null){
+                            split = new SpilledGroups(groups.td, 1, groups.level + 1);
+                        }
+                        spillGroups(split);
+                    }
+                }
+            }
+            f.delete();
+            if(split != null){
+                spillGroups(split);
+                mergeSpilled(split, out);
+            } else {
+                for(Map.Entry<Field,AggregateData> e : aggMap.entrySet()){
+                    out.add(resultTuple(e.getKey(), e.getValue()));
+                }
+                aggMap = new HashMap<Field,AggregateData>();
+            }
+        }
+    }
+
+    /**
+     * @return the result tuple of a group.
+     */
+    Tuple resultTuple(Field field, AggregateData aggData) {
+        Tuple aggTuple = newAggregateTuple();
+        if(!noGroup){
+            aggTuple.setField(0,field);
+        }
+        aggTuple.setField(aggregateIndex,new IntField(aggData.getCount()));
+        return aggTuple;
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
      * @return a DbIterator whose tuples are the pair (groupVal,
      *   aggregateVal) if using group, or a single (aggregateVal) if no
      *   aggregateIndex. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
+     *   aggregate specified in the constructor. If groups were spilled, the
+     *   results are read from a temporary file, which closing the iterator
+     *   removes.
      */
-    public DbIterator iterator() {
-        
+    public DbIterator iterator() throws DbException {
+
+        if(spilled != null){
+            //merge each file of spilled groups in turn, and read the results
+            //back from disk
+            spillGroups();
+            SpillFile results = new SpillFile(newAggregateTuple().getTupleDesc());
+            mergeSpilled(spilled, results);
+            spilled = null;
+            return results.iterator();
+        }
+
         Vector<Tuple> aggTuples = new Vector<Tuple>();
-        Tuple aggTuple;
 
         for(Field field : aggMap.keySet()){
-
-            aggTuple = newAggregateTuple();
-            AggregateData aggData = aggMap.get(field);
-            int aggValue = aggData.getCount();
-            if(!noGroup){
-                aggTuple.setField(0,field);
-            }
-            aggTuple.setField(aggregateIndex,new IntField(aggValue));
-            aggTuples.add(aggTuple);
+            aggTuples.add(resultTuple(field, aggMap.get(field)));
         }
 
         return new TupleIterator(newAggregateTuple().getTupleDesc(),aggTuples);
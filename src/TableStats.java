@@ -66,7 +66,7 @@ public class TableStats {
     static final int NUM_HIST_BINS = 100;
     int myIOCOST;
     int numTuples;
-    HeapFile myHeapFile;
+    DbFile myFile;
     TupleDesc myTD;
     Map<Integer,FieldHistogram> tableHistograms;
 
@@ -128,8 +128,8 @@ public class TableStats {
         myTransaction.start();
 
         //get the table's iterator
-        HeapFile hf = (HeapFile)Database.getCatalog().myCatalog.get(tableid).file;
-        myHeapFile = hf;
+        DbFile hf = Database.getCatalog().getDatabaseFile(tableid);
+        myFile = hf;
         DbFileIterator iterator = hf.iterator(myTransaction.getId());
         myTD = hf.getTupleDesc();
         int numFields = myTD.myTDItems.size();
@@ -241,7 +241,12 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return myHeapFile.numPages()*myIOCOST;
+        int numPages;
+        if(myFile instanceof PartitionedFile)
+            numPages = ((PartitionedFile)myFile).numPages();
+        else
+            numPages = ((HeapFile)myFile).numPages();
+        return numPages*myIOCOST;
     }
 
     /**
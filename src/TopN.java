@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in the order OrderBy would, but keeps only n
+ * tuples in memory while reading the child, in a heap with the tuple that
+ * would be returned last on top.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private String orderByFieldName;
+    private boolean asc;
+    private int limit;
+
+    // the heap: tuples, their keys, and the order they were read in, which
+    // breaks ties between equal keys like OrderBy's stable sort
+    private transient Tuple[] tuples;
+    private transient Field[] keys;
+    private transient long[] seqs;
+    private transient int count;
+    private transient FieldComparator cmp;
+    private transient int pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        int capacity = Math.max(1, Math.min(limit, TupleBatch.DEFAULT_SIZE));
+        tuples = new Tuple[capacity];
+        keys = new Field[capacity];
+        seqs = new long[capacity];
+        count = 0;
+        cmp = new FieldComparator(asc);
+        if (limit > 0) {
+            BatchIterator batches = BatchAdapter.of(child);
+            TupleBatch batch;
+            long seq = 0;
+            while ((batch = batches.nextBatch()) != null) {
+                for (int i = 0; i < batch.size(); i++, seq++) {
+                    Field key = batch.getField(i, orderByField);
+                    if (count < limit) {
+                        push(batch.getTuple(i), key, seq);
+                    } else if (cmp.compare(key, keys[0]) < 0) {
+                        // later rows lose ties, so only strictly smaller
+                        // keys replace the top
+                        set(0, batch.getTuple(i), key, seq);
+                        siftDown(0);
+                    }
+                }
+            }
+        }
+        // pop the heap from the back of the array to sort it
+        for (int end = count - 1; end > 0; end--) {
+            swap(0, end);
+            int saved = count;
+            count = end;
+            siftDown(0);
+            count = saved;
+        }
+        pos = 0;
+        super.open();
+    }
+
+    /** @return true if heap entry i would be returned after entry j. */
+    private boolean after(int i, int j) {
+        int c = cmp.compare(keys[i], keys[j]);
+        return c > 0 || (c == 0 && seqs[i] > seqs[j]);
+    }
+
+    private void set(int i, Tuple t, Field key, long seq) {
+        tuples[i] = t;
+        keys[i] = key;
+        seqs[i] = seq;
+    }
+
+    private void swap(int i, int j) {
+        Tuple t = tuples[i];
+        Field k = keys[i];
+        long s = seqs[i];
+        set(i, tuples[j], keys[j], seqs[j]);
+        set(j, t, k, s);
+    }
+
+    private void push(Tuple t, Field key, long seq) {
+        if (count == tuples.length) {
+            int cap = (int) Math.min((long) limit, 2L * count);
+            tuples = Arrays.copyOf(tuples, cap);
+            keys = Arrays.copyOf(keys, cap);
+            seqs = Arrays.copyOf(seqs, cap);
+        }
+        int i = count++;
+        set(i, t, key, seq);
+        while (i > 0 && after(i, (i - 1) / 2)) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, top = i;
+            if (l < count && after(l, top))
+                top = l;
+            if (r < count && after(r, top))
+                top = r;
+            if (top == i)
+                return;
+            swap(i, top);
+            i = top;
+        }
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        tuples = null;
+        keys = null;
+        seqs = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples from
+     * the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (tuples != null && pos < count)
+            return tuples[pos++];
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TrigramIndex is an inverted {@link ColumnIndex} over a string column. It
+ * maps every three-character substring (trigram) of the column's values to a
+ * {@link CompressedBitmap} of the positions of the tuples containing it.
+ * <p>
+ * A LIKE predicate matches when its operand is a substring of the value (see
+ * {@link StringField#compare}), so every matching value contains all of the
+ * operand's trigrams, and ANDing their bitmaps gives the candidates. The same
+ * holds for EQUALS. Candidates are a superset of the matches (the trigrams
+ * may occur in a different order), so the predicate must still be re-checked.
+ * Operands shorter than three characters can't be narrowed down.
+ */
+public class TrigramIndex implements ColumnIndex {
+
+    static final int GRAM_LEN = 3;
+
+    HeapFile myFile;
+    int myField;
+    HashMap<String,CompressedBitmap> postings;
+    // tuples inserted while a rebuild scans the file
+    private ArrayList<Tuple> addedDuringRebuild;
+
+    /**
+     * Create an empty trigram index over a column of a file. Use
+     * {@link #create} to build an index and attach it to the file.
+     *
+     * @param hf the file to index
+     * @param field the column to index
+     * @throws IllegalArgumentException if the column is not a string column
+     */
+    public TrigramIndex(HeapFile hf, int field) {
+        if (hf.getTupleDesc().getFieldType(field) != Type.STRING_TYPE)
+            throw new IllegalArgumentException("trigram indexes need a string column");
+        myFile = hf;
+        myField = field;
+        postings = new HashMap<String,CompressedBitmap>();
+    }
+
+    /**
+     * Build a trigram index over a column of a file and register it with the
+     * file, so later inserts are reflected in it.
+     *
+     * @param tid the transaction to scan the file as a part of
+     * @param hf the file to index
+     * @param field the column to index
+     * @return the new index
+     */
+    public static TrigramIndex create(TransactionId tid, HeapFile hf, int field)
+            throws DbException, TransactionAbortedException {
+        TrigramIndex idx = new TrigramIndex(hf, field);
+        idx.rebuild(tid);
+        hf.addIndex(idx);
+        return idx;
+    }
+
+    public int getField() {
+        return myField;
+    }
+
+    public synchronized void addTuple(Tuple t) {
+        add(postings, t);
+        if (addedDuringRebuild != null)
+            addedDuringRebuild.add(t);
+    }
+
+    private void add(HashMap<String,CompressedBitmap> postings, Tuple t) {
+        String value = ((StringField) t.getField(myField)).getValue();
+        int pos = myFile.getPosition(t.getRecordId());
+        for (String gram : trigrams(value)) {
+            CompressedBitmap bm = postings.get(gram);
+            if (bm == null) {
+                bm = new CompressedBitmap();
+                postings.put(gram, bm);
+            }
+            bm.add(pos);
+        }
+    }
+
+    /**
+     * The file is scanned without holding this index's lock, since the scan
+     * may wait for the page locks of a transaction that is inserting.
+     */
+    public void rebuild(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        synchronized (this) {
+            addedDuringRebuild = new ArrayList<Tuple>();
+        }
+        HashMap<String,CompressedBitmap> fresh = new HashMap<String,CompressedBitmap>();
+        try {
+            DbFileIterator it = myFile.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                add(fresh, it.next());
+            it.close();
+            synchronized (this) {
+                for (Tuple t : addedDuringRebuild)
+                    add(fresh, t);
+                postings = fresh;
+            }
+        } finally {
+            synchronized (this) {
+                addedDuringRebuild = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct trigrams in the indexed column.
+     */
+    public synchronized int numTrigrams() {
+        return postings.size();
+    }
+
+    /**
+     * Return the positions of the tuples that may satisfy
+     * <tt>field op operand</tt>, for LIKE and EQUALS.
+     *
+     * @return the candidate positions, or null if op is not LIKE or EQUALS or
+     *         the operand is shorter than a trigram.
+     */
+    public synchronized CompressedBitmap lookup(Predicate.Op op, Field operand) {
+        if (op != Predicate.Op.LIKE && op != Predicate.Op.EQUALS)
+            return null;
+        Set<String> grams = trigrams(((StringField) operand).getValue());
+        if (grams.isEmpty())
+            return null;
+
+        // AND the shortest posting lists first so the result shrinks quickly
+        ArrayList<CompressedBitmap> lists = new ArrayList<CompressedBitmap>();
+        for (String gram : grams) {
+            CompressedBitmap bm = postings.get(gram);
+            if (bm == null)
+                return new CompressedBitmap();
+            lists.add(bm);
+        }
+        Collections.sort(lists, new Comparator<CompressedBitmap>() {
+            public int compare(CompressedBitmap a, CompressedBitmap b) {
+                return Integer.compare(a.cardinality(), b.cardinality());
+            }
+        });
+
+        CompressedBitmap result = lists.get(0);
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++)
+            result = result.and(lists.get(i));
+        // never hand out a posting list itself
+        return result == lists.get(0) ? result.copy() : result;
+    }
+
+    /**
+     * @return the distinct trigrams of s.
+     */
+    static Set<String> trigrams(String s) {
+        HashSet<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM_LEN <= s.length(); i++)
+            grams.add(s.substring(i, i + GRAM_LEN));
+        return grams;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * TupleAdapter reads a {@link BatchIterator} a tuple at a time, so that a
+ * batch-only source can feed operators that expect a {@link DbIterator}.
+ */
+public class TupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    BatchIterator child;
+    transient TupleBatch cur;
+    transient int row;
+
+    public TupleAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        cur = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        cur = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        cur = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (cur == null || row == cur.size()) {
+            cur = child.nextBatch();
+            row = 0;
+            if (cur == null)
+                return null;
+        }
+        return cur.getTuple(row++);
+    }
+
+    /**
+     * A TupleAdapter's only child is a BatchIterator; if that is also a
+     * DbIterator it is returned here, otherwise there are no children.
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        if (child instanceof DbIterator)
+            return new DbIterator[] { (DbIterator) child };
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = BatchAdapter.of(children[0]);
+    }
+}
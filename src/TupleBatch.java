@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds a group of rows with the same schema column by column, so
+ * that operators can work on many rows per call (see {@link BatchIterator}).
+ * Integer columns are stored as plain int arrays; other columns are stored
+ * as arrays of Fields.
+ * <p>
+ * A batch grows as rows are added to it; {@link #isFull} only tells
+ * producers when the batch has reached the size they asked for.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows operators put in a batch unless told otherwise. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    final TupleDesc td;
+    /** ints[i] is column i if it is an INT_TYPE column, null otherwise. */
+    int[][] ints;
+    /** fields[i] is column i if it isn't an INT_TYPE column, null otherwise. */
+    Field[][] fields;
+    RecordId[] rids;
+    int size;
+    final int batchSize;
+
+    /**
+     * Create an empty batch of DEFAULT_SIZE rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows of the batch
+     * @param batchSize the number of rows after which the batch is full
+     */
+    public TupleBatch(TupleDesc td, int batchSize) {
+        this.td = td;
+        this.batchSize = batchSize;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[batchSize];
+            else
+                fields[i] = new Field[batchSize];
+        }
+        rids = new RecordId[batchSize];
+    }
+
+    private TupleBatch(TupleDesc td, int size, int batchSize) {
+        this.td = td;
+        this.size = size;
+        this.batchSize = batchSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true once the batch holds as many rows as it was created for.
+     */
+    public boolean isFull() {
+        return size >= batchSize;
+    }
+
+    /**
+     * Remove every row from the batch.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns an integer column. Only the first {@link #size} entries are
+     * rows of the batch.
+     *
+     * @throws IllegalArgumentException if column i isn't an INT_TYPE column
+     */
+    public int[] getIntColumn(int i) {
+        if (ints[i] == null)
+            throw new IllegalArgumentException("column " + i + " is not an int column");
+        return ints[i];
+    }
+
+    /**
+     * @return the value of column col in row row.
+     */
+    public Field getField(int row, int col) {
+        assert row < size;
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return fields[col][row];
+    }
+
+    /**
+     * @return the RecordId of a row, or null if it has none.
+     */
+    public RecordId getRecordId(int row) {
+        assert row < size;
+        return rids[row];
+    }
+
+    /**
+     * @return a new Tuple holding the values of a row.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(row, i));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    private void ensureRoom() {
+        if (size < rids.length)
+            return;
+        int cap = Math.max(16, rids.length * 2);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i] = Arrays.copyOf(ints[i], cap);
+            else
+                fields[i] = Arrays.copyOf(fields[i], cap);
+        }
+        rids = Arrays.copyOf(rids, cap);
+    }
+
+    /**
+     * Append a tuple to the batch.
+     */
+    public void addTuple(Tuple t) {
+        ensureRoom();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][size] = ((IntField) t.getField(i)).getValue();
+            else
+                fields[i][size] = t.getField(i);
+        }
+        rids[size] = t.getRecordId();
+        size++;
+    }
+
+    /**
+     * Append a copy of a row of another batch with the same schema.
+     */
+    public void addRow(TupleBatch src, int row) {
+        ensureRoom();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][size] = src.ints[i][row];
+            else
+                fields[i][size] = src.fields[i][row];
+        }
+        rids[size] = src.rids[row];
+        size++;
+    }
+
+    /**
+     * Append the concatenation of a row of left and a row of right; this
+     * batch's schema must be the merge of theirs.
+     */
+    public void addJoinedRow(TupleBatch left, int lrow, TupleBatch right, int rrow) {
+        ensureRoom();
+        int n1 = left.ints.length;
+        for (int i = 0; i < n1; i++) {
+            if (ints[i] != null)
+                ints[i][size] = left.ints[i][lrow];
+            else
+                fields[i][size] = left.fields[i][lrow];
+        }
+        for (int i = 0; i < right.ints.length; i++) {
+            if (ints[n1 + i] != null)
+                ints[n1 + i][size] = right.ints[i][rrow];
+            else
+                fields[n1 + i][size] = right.fields[i][rrow];
+        }
+        rids[size] = null;
+        size++;
+    }
+
+    /**
+     * Keep only the rows i for which keep[i] is true, in their current order.
+     */
+    public void retain(boolean[] keep) {
+        int out = 0;
+        for (int row = 0; row < size; row++) {
+            if (!keep[row])
+                continue;
+            if (out != row) {
+                for (int i = 0; i < ints.length; i++) {
+                    if (ints[i] != null)
+                        ints[i][out] = ints[i][row];
+                    else
+                        fields[i][out] = fields[i][row];
+                }
+                rids[out] = rids[row];
+            }
+            out++;
+        }
+        size = out;
+    }
+
+    /**
+     * @return a copy of this batch that shares nothing with it, so that
+     *         either can be changed without affecting the other.
+     */
+    public TupleBatch copy() {
+        TupleBatch b = new TupleBatch(td, size, batchSize);
+        b.ints = new int[ints.length][];
+        b.fields = new Field[fields.length][];
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                b.ints[i] = Arrays.copyOf(ints[i], size);
+            else
+                b.fields[i] = Arrays.copyOf(fields[i], size);
+        }
+        b.rids = Arrays.copyOf(rids, size);
+        return b;
+    }
+
+    /**
+     * Returns a batch made of some of the columns of this one. The columns
+     * are shared, not copied, so this batch should not be changed afterwards.
+     *
+     * @param outFields the columns of this batch to keep, in output order
+     * @param outTD the schema of the result
+     */
+    public TupleBatch project(int[] outFields, TupleDesc outTD) {
+        TupleBatch b = new TupleBatch(outTD, size, batchSize);
+        b.ints = new int[outFields.length][];
+        b.fields = new Field[outFields.length][];
+        for (int i = 0; i < outFields.length; i++) {
+            b.ints[i] = ints[outFields[i]];
+            b.fields[i] = fields[outFields[i]];
+        }
+        b.rids = rids;
+        return b;
+    }
+}
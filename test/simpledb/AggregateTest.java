@@ -176,6 +176,232 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test that aggregates with more groups than their memory budget
+   * spill them to disk and still find every group's result, including
+   * budgets small enough that spilled groups are split more than once
+   */
+  @Test public void spillGroups() throws Exception {
+    java.util.Random r = new java.util.Random(5);
+    int[] ints = new int[2 * 2000];
+    Object[] strings = new Object[2 * 2000];
+    for (int i = 0; i < 2000; i++) {
+      ints[2 * i] = r.nextInt(300);
+      ints[2 * i + 1] = r.nextInt(1000) - 500;
+      strings[2 * i] = "g" + ints[2 * i];
+      strings[2 * i + 1] = "v";
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      for (int budget : new int[] { 1, 40, 299 }) {
+        Aggregate expected = new Aggregate(TestUtil.createTupleList(width1, ints), 1, 0, op);
+        Aggregate actual = new Aggregate(TestUtil.createTupleList(width1, ints), 1, 0, op);
+        actual.setMemoryBudget(budget);
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+        actual.rewind();
+        int groups = 0;
+        while (actual.hasNext()) {
+          actual.next();
+          groups++;
+        }
+        expected.rewind();
+        for (int i = 0; i < groups; i++)
+          expected.next();
+        assertTrue(TestUtil.checkExhausted(expected));
+        actual.close();
+        expected.close();
+      }
+    }
+    Aggregate expected = new Aggregate(TestUtil.createTupleList(width1, strings), 1, 0,
+        Aggregator.Op.COUNT);
+    Aggregate actual = new Aggregate(TestUtil.createTupleList(width1, strings), 1, 0,
+        Aggregator.Op.COUNT);
+    actual.setMemoryBudget(10);
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+  }
+
+  /**
+   * Unit test that partial aggregates of parts of the input, combined by a
+   * final aggregate, give the same result as one aggregate over all of it
+   */
+  @Test public void twoPhase() throws Exception {
+    java.util.Random r = new java.util.Random(9);
+    int[] ints = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      ints[2 * i] = r.nextInt(50);
+      ints[2 * i + 1] = r.nextInt(1000) - 300;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+        HashRepartition split = new HashRepartition(
+            new DbIterator[] { TestUtil.createTupleList(width1, ints) }, 1, 4);
+        DbIterator[] partials = new DbIterator[split.numOutputs()];
+        for (int i = 0; i < partials.length; i++)
+          partials[i] = new Aggregate(split.getOutput(i), 1, gfield, Aggregate.partialOp(op));
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        Aggregate actual = new Aggregate(new Gather(partials), grouped ? 1 : 0,
+            grouped ? 0 : Aggregator.NO_GROUPING, Aggregate.finalOp(op));
+        Aggregate expected = new Aggregate(TestUtil.createTupleList(width1, ints), 1, gfield, op);
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+        actual.close();
+        expected.close();
+      }
+    }
+  }
+
+  /**
+   * Unit test that closing an aggregate closes its child, whether the
+   * groups were hashed or streamed
+   */
+  @Test public void closesChild() throws Exception {
+    TupleIterator rows = TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 3, 6 });
+    final java.util.ArrayList<Tuple> tuples = new java.util.ArrayList<Tuple>();
+    rows.open();
+    while (rows.hasNext())
+      tuples.add(rows.next());
+    rows.close();
+    for (boolean sorted : new boolean[] { false, true }) {
+      final boolean[] closed = new boolean[1];
+      TupleIterator child = new TupleIterator(rows.getTupleDesc(), tuples) {
+        private static final long serialVersionUID = 1L;
+        public void close() {
+          closed[0] = true;
+          super.close();
+        }
+      };
+      Aggregate agg = new Aggregate(child, 1, 0, Aggregator.Op.SUM);
+      agg.setSortedInput(sorted);
+      agg.open();
+      while (agg.hasNext())
+        agg.next();
+      agg.close();
+      assertTrue(closed[0]);
+    }
+  }
+
+  /**
+   * Unit test for several aggregates over groups of several fields, in one
+   * pass, with and without spilling groups and in two phases
+   */
+  @Test public void multipleAggregates() throws Exception {
+    java.util.Random r = new java.util.Random(11);
+    int rows = 2000;
+    int[] ints = new int[3 * rows];
+    java.util.TreeMap<Integer, int[]> groups = new java.util.TreeMap<Integer, int[]>();
+    for (int i = 0; i < rows; i++) {
+      int a = r.nextInt(8), b = r.nextInt(20), v = r.nextInt(1000) - 300;
+      ints[3 * i] = a;
+      ints[3 * i + 1] = b;
+      ints[3 * i + 2] = v;
+      int[] g = groups.get(a * 100 + b);
+      if (g == null)
+        groups.put(a * 100 + b, g = new int[] { v, v, 0, 0 });
+      g[0] = Math.min(g[0], v);
+      g[1] = Math.max(g[1], v);
+      g[2] += v;
+      g[3]++;
+    }
+    int[] expectedInts = new int[6 * groups.size()];
+    int e = 0;
+    for (java.util.Map.Entry<Integer, int[]> g : groups.entrySet()) {
+      int[] s = g.getValue();
+      int[] row = { g.getKey() / 100, g.getKey() % 100, s[0], s[1], s[2] / s[3], s[3] };
+      System.arraycopy(row, 0, expectedInts, e, 6);
+      e += 6;
+    }
+    int[] afields = { 2, 2, 2, 0 };
+    int[] gfields = { 0, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG,
+        Aggregator.Op.COUNT };
+
+    for (int budget : new int[] { 5, IntegerAggregator.MAX_GROUPS }) {
+      Aggregate actual = new Aggregate(TestUtil.createTupleList(3, ints), afields, gfields, ops);
+      actual.setMemoryBudget(budget);
+      assertEquals(6, actual.getTupleDesc().numFields());
+      actual.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(6, expectedInts), actual);
+      actual.rewind();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(6, expectedInts), actual);
+      actual.close();
+    }
+
+    HashRepartition split = new HashRepartition(
+        new DbIterator[] { TestUtil.createTupleList(3, ints) }, 2, 4);
+    Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+    Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+    int[] finalAfields = new int[ops.length];
+    for (int i = 0, col = gfields.length; i < ops.length; i++) {
+      partialOps[i] = Aggregate.partialOp(ops[i]);
+      finalOps[i] = Aggregate.finalOp(ops[i]);
+      finalAfields[i] = col;
+      col += partialOps[i] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+    }
+    DbIterator[] partials = new DbIterator[split.numOutputs()];
+    for (int i = 0; i < partials.length; i++)
+      partials[i] = new Aggregate(split.getOutput(i), afields, gfields, partialOps);
+    Aggregate actual = new Aggregate(new Gather(partials), finalAfields, gfields, finalOps);
+    actual.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(6, expectedInts), actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test that a streaming aggregate over sorted input gives the same
+   * groups as a hash aggregate, and returns the first group before reading
+   * all of its input
+   */
+  @Test public void sortedInput() throws Exception {
+    java.util.Random r = new java.util.Random(13);
+    int[] ints = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      ints[2 * i] = r.nextInt(60);
+      ints[2 * i + 1] = r.nextInt(1000) - 300;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+        Aggregate expected = new Aggregate(TestUtil.createTupleList(width1, ints), 1, gfield, op);
+        Aggregate actual = new Aggregate(new OrderBy(0, false, TestUtil.createTupleList(width1, ints)),
+            1, gfield, op);
+        actual.setSortedInput(true);
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+        actual.rewind();
+        TestUtil.matchAllTuples(expected, actual);
+        actual.close();
+        expected.close();
+      }
+    }
+
+    final int[] read = new int[1];
+    DbIterator sorted = new OrderBy(0, true, TestUtil.createTupleList(width1, ints));
+    Limit counting = new Limit(Integer.MAX_VALUE, sorted) {
+      private static final long serialVersionUID = 1L;
+      protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        read[0]++;
+        return super.fetchNext();
+      }
+    };
+    Aggregate streaming = new Aggregate(counting, new int[] { 1, 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    streaming.setSortedInput(true);
+    streaming.open();
+    assertTrue(streaming.hasNext());
+    assertEquals(0, ((IntField) streaming.next().getField(0)).getValue());
+    assertTrue(read[0] < 3000);
+    streaming.close();
+  }
+
   /**
    * JUnit suite target
    */
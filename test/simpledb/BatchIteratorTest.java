@@ -0,0 +1,182 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up a 3-column table of 3000 rows, several batches' worth
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, hf.getId(), "t");
+    }
+
+    /**
+     * Read an operator through its batch interface, a tuple at a time.
+     */
+    private DbIterator viaBatches(DbIterator op) {
+        return new TupleAdapter((BatchIterator) op);
+    }
+
+    /**
+     * Unit test for SeqScan.nextBatch()
+     */
+    @Test
+    public void seqScan() throws Exception {
+        SeqScan ss = scan();
+        ss.open();
+        int batches = 0;
+        TupleBatch b;
+        while ((b = ss.nextBatch()) != null) {
+            assertTrue(b.size() <= TupleBatch.DEFAULT_SIZE);
+            batches++;
+        }
+        ss.close();
+        assertEquals(3, batches);
+        SystemTestUtil.matchTuples(viaBatches(scan()), tuples);
+    }
+
+    /**
+     * Unit test that reading batches from a scan that isn't open fails
+     */
+    @Test(expected = IllegalStateException.class)
+    public void seqScanNotOpen() throws Exception {
+        scan().nextBatch();
+    }
+
+    /**
+     * Unit test for Filter.nextBatch() and Project.nextBatch()
+     */
+    @Test
+    public void filterProject() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 30)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+        }
+        Filter f = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)), scan());
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Project p = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, f);
+        SystemTestUtil.matchTuples(viaBatches(p), expected);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.nextBatch(), with a tuple-only child on one
+     * side
+     */
+    @Test
+    public void hashJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        int[] keys = new int[] { 3, 50, 50, 99, 1000 };
+        for (int k : keys) {
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) == k) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(Arrays.asList(k));
+                    out.addAll(t);
+                    expected.add(out);
+                }
+            }
+        }
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(1, keys), scan());
+        SystemTestUtil.matchTuples(viaBatches(j), expected);
+    }
+
+    /**
+     * Unit test for Aggregate reading its child in batches
+     */
+    @Test
+    public void aggregate() throws Exception {
+        HashMap<Integer,Integer> sums = new HashMap<Integer,Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer s = sums.get(t.get(0));
+            sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer,Integer> e : sums.entrySet())
+            expected.add(new ArrayList<Integer>(Arrays.asList(e.getKey(), e.getValue())));
+
+        SystemTestUtil.matchTuples(new Aggregate(scan(), 1, 0, Aggregator.Op.SUM), expected);
+        SystemTestUtil.matchTuples(viaBatches(new Aggregate(scan(), 1, 0, Aggregator.Op.SUM)), expected);
+    }
+
+    /**
+     * Unit test for OrderBy through both interfaces, in both directions
+     */
+    @Test
+    public void orderBy() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            DbIterator[] plans = new DbIterator[] { new OrderBy(1, asc, scan()),
+                                                    viaBatches(new OrderBy(1, asc, scan())) };
+            for (DbIterator plan : plans) {
+                plan.open();
+                int count = 0;
+                Integer last = null;
+                while (plan.hasNext()) {
+                    int v = ((IntField) plan.next().getField(1)).getValue();
+                    if (last != null)
+                        assertTrue(asc ? last <= v : last >= v);
+                    last = v;
+                    count++;
+                }
+                plan.close();
+                assertEquals(tuples.size(), count);
+            }
+        }
+    }
+
+    /**
+     * Unit test for the batch adapters and TupleBatch.retain()
+     */
+    @Test
+    public void adapters() throws Exception {
+        DbIterator tuplesOnly = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6 });
+        BatchIterator batches = BatchAdapter.of(tuplesOnly);
+        assertTrue(batches instanceof BatchAdapter);
+        SeqScan ss = scan();
+        assertSame(ss, BatchAdapter.of(ss));
+
+        batches.open();
+        TupleBatch b = batches.nextBatch();
+        assertEquals(3, b.size());
+        assertNull(batches.nextBatch());
+        batches.close();
+
+        b.retain(new boolean[] { false, true, true });
+        assertEquals(2, b.size());
+        assertEquals(new IntField(3), b.getField(0, 0));
+        assertEquals(6, b.getIntColumn(1)[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
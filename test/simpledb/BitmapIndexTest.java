@@ -0,0 +1,172 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, 10, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for CompressedBitmap AND/OR over sparse and dense chunks
+     */
+    @Test
+    public void andOr() {
+        CompressedBitmap evens = new CompressedBitmap();
+        CompressedBitmap sparse = new CompressedBitmap();
+        for (int i = 0; i < 200000; i += 2)
+            evens.add(i);
+        for (int i = 0; i < 200000; i += 1000)
+            sparse.add(i + 1);
+        sparse.add(70000);
+
+        assertEquals(100000, evens.cardinality());
+        assertTrue(evens.contains(65536));
+        assertFalse(evens.contains(65537));
+
+        CompressedBitmap and = evens.and(sparse);
+        assertEquals(1, and.cardinality());
+        assertTrue(and.contains(70000));
+
+        CompressedBitmap or = evens.or(sparse);
+        assertEquals(100000 + 200, or.cardinality());
+        int[] values = or.toArray();
+        for (int i = 1; i < values.length; i++)
+            assertTrue(values[i - 1] < values[i]);
+
+        // neither argument is modified
+        assertEquals(100000, evens.cardinality());
+        assertEquals(201, sparse.cardinality());
+    }
+
+    /**
+     * Unit test for BitmapIndex.lookup()
+     */
+    @Test
+    public void lookup() throws Exception {
+        BitmapIndex idx = BitmapIndex.create(tid, hf, 0);
+        assertTrue(idx.numDistinctValues() <= 10);
+
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 3)
+                expected++;
+        }
+        CompressedBitmap bm = idx.lookup(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals(expected, bm.cardinality());
+    }
+
+    /**
+     * Unit test for BitmapIndexScan over two ANDed predicates
+     */
+    @Test
+    public void scan() throws Exception {
+        BitmapIndex idx0 = BitmapIndex.create(tid, hf, 0);
+        BitmapIndex idx1 = BitmapIndex.create(tid, hf, 1);
+
+        CompressedBitmap candidates = idx0.lookup(Predicate.Op.LESS_THAN, new IntField(5))
+            .and(idx1.lookup(Predicate.Op.EQUALS, new IntField(7)));
+
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 5 && t.get(1) == 7)
+                expected++;
+        }
+
+        BitmapIndexScan scan = new BitmapIndexScan(tid, hf.getId(), "t", candidates);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertTrue(((IntField) t.getField(0)).getValue() < 5);
+            assertEquals(new IntField(7), t.getField(1));
+            count++;
+        }
+        assertEquals(expected, count);
+
+        scan.rewind();
+        assertEquals(expected > 0, scan.hasNext());
+        scan.close();
+    }
+
+    /**
+     * Unit test that inserted tuples are added to the file's indexes
+     */
+    @Test
+    public void insertMaintainsIndex() throws Exception {
+        BitmapIndex idx = BitmapIndex.create(tid, hf, 0);
+        int before = idx.lookup(Predicate.Op.EQUALS, new IntField(42)).cardinality();
+        assertEquals(0, before);
+
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(42));
+        t.setField(1, new IntField(1));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+
+        assertEquals(1, idx.lookup(Predicate.Op.EQUALS, new IntField(42)).cardinality());
+    }
+
+    /**
+     * Unit test that tuples added from several threads at once, as
+     * concurrent transactions insert them, all end up in the index
+     */
+    @Test
+    public void concurrentAdds() throws Exception {
+        final BitmapIndex idx = new BitmapIndex(hf, 0);
+        final int slots = hf.getSlotsPerPage();
+        Thread[] threads = new Thread[4];
+        for (int n = 0; n < threads.length; n++) {
+            final int page = n;
+            threads[n] = new Thread() {
+                public void run() {
+                    for (int slot = 0; slot < slots; slot++) {
+                        Tuple t = new Tuple(hf.getTupleDesc());
+                        t.setField(0, new IntField(slot % 7));
+                        t.setField(1, new IntField(slot));
+                        t.setRecordId(new RecordId(new HeapPageId(hf.getId(), page), slot));
+                        idx.addTuple(t);
+                    }
+                }
+            };
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(7, idx.numDistinctValues());
+        assertEquals(threads.length * slots,
+                idx.lookup(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)).cardinality());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
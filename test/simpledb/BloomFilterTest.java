@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that added fields are always found and that the false
+     * positive rate is near the requested one
+     */
+    @Test
+    public void mightContain() {
+        BloomFilter bf = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            bf.add(new IntField(i * 2));
+        for (int i = 0; i < 10000; i++)
+            assertTrue(bf.mightContain(new IntField(i * 2)));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (bf.mightContain(new IntField(i * 2 + 1)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 300);
+    }
+
+    /**
+     * Unit test for BloomFilterIndex.lookup() on present and absent values
+     */
+    @Test
+    public void lookup() throws Exception {
+        BloomFilterIndex idx = BloomFilterIndex.create(tid, hf, 0);
+        for (ArrayList<Integer> t : tuples) {
+            assertTrue(idx.mightContain(new IntField(t.get(0))));
+            assertNull(idx.lookup(Predicate.Op.EQUALS, new IntField(t.get(0))));
+        }
+        // values are all below 1000
+        int ruledOut = 0;
+        for (int i = 1000; i < 2000; i++) {
+            CompressedBitmap bm = idx.lookup(Predicate.Op.EQUALS, new IntField(i));
+            if (bm != null && bm.isEmpty())
+                ruledOut++;
+        }
+        assertTrue(ruledOut > 900);
+        assertNull(idx.lookup(Predicate.Op.LESS_THAN, new IntField(5000)));
+    }
+
+    /**
+     * Unit test that HashEquiJoin results are unchanged when the probe side
+     * has a Bloom filter that rules out most build keys
+     */
+    @Test
+    public void hashJoinWithProbeFilter() throws Exception {
+        BloomFilterIndex.create(tid, hf, 0);
+        int[] keys = new int[] { tuples.get(0).get(0), 5000, 6000, tuples.get(1).get(0), 7000 };
+        DbIterator build = TestUtil.createTupleList(1, keys);
+
+        int expected = 0;
+        for (int k : keys) {
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) == k)
+                    expected++;
+            }
+        }
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                build, new SeqScan(tid, hf.getId()));
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(1));
+            count++;
+        }
+        join.close();
+        assertEquals(expected, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
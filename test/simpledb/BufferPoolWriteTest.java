@@ -133,6 +133,39 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    @Test public void concurrentReadsShareOnePage() throws Exception {
+        // pages read from disk by several threads at once must still end up
+        // cached once, so every thread sees the same copy
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        final int pages = hf.numPages();
+        final Page[][] seen = new Page[4][pages];
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int p = 0; p < pages; ++p) {
+                            seen[n][p] = Database.getBufferPool().getPage(tid,
+                                    new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        if (failure[0] != null) throw failure[0];
+        for (int p = 0; p < pages; ++p) {
+            for (int n = 1; n < seen.length; ++n) {
+                assertSame(seen[0][p], seen[n][p]);
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
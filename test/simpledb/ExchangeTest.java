@@ -0,0 +1,288 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up a 2-column table of 5000 rows spread over a dozen pages
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, 200, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return n scans that cover the table between them
+     */
+    private DbIterator[] slices(int n) {
+        return slices(hf, n);
+    }
+
+    /**
+     * @return n scans that cover a table between them
+     */
+    private DbIterator[] slices(HeapFile hf, int n) {
+        DbIterator[] scans = new DbIterator[n];
+        int pages = hf.numPages();
+        for (int i = 0; i < n; i++)
+            scans[i] = new PageRangeScan(tid, hf.getId(), "t", pages * i / n, pages * (i + 1) / n);
+        return scans;
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Unit test that a Gather over page ranges returns the whole table, also
+     * after a rewind
+     */
+    @Test
+    public void gather() throws Exception {
+        assertTrue(hf.numPages() > 4);
+        SystemTestUtil.matchTuples(new Gather(slices(4)), tuples);
+
+        Gather g = new Gather(slices(3));
+        g.open();
+        for (int i = 0; i < 100; i++)
+            g.next();
+        g.rewind();
+        assertEquals(tuples.size(), count(g));
+        g.close();
+    }
+
+    /**
+     * Read each of a set of open iterators to the end on a thread of its
+     * own, as the consumers of an exchange are read.
+     * @return the rows read from each iterator
+     */
+    private ArrayList<ArrayList<Tuple>> readAll(final DbIterator[] its) throws Exception {
+        final ArrayList<ArrayList<Tuple>> rows = new ArrayList<ArrayList<Tuple>>();
+        final Exception[] failure = new Exception[1];
+        Thread[] readers = new Thread[its.length];
+        for (int i = 0; i < its.length; i++) {
+            final ArrayList<Tuple> mine = new ArrayList<Tuple>();
+            final DbIterator it = its[i];
+            rows.add(mine);
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (it.hasNext())
+                            mine.add(it.next());
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread r : readers)
+            r.join();
+        if (failure[0] != null)
+            throw failure[0];
+        return rows;
+    }
+
+    /**
+     * Unit test that HashRepartition sends every row to exactly one output,
+     * the same one for equal values, also after a rewind
+     */
+    @Test(timeout = 60000)
+    public void hashRepartition() throws Exception {
+        HashRepartition rep = new HashRepartition(slices(3), 0, 4);
+        DbIterator[] outs = new DbIterator[4];
+        for (int i = 0; i < 4; i++) {
+            outs[i] = rep.getOutput(i);
+            outs[i].open();
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+            HashMap<Integer,Integer> outputOf = new HashMap<Integer,Integer>();
+            ArrayList<ArrayList<Tuple>> rows = readAll(outs);
+            for (int i = 0; i < 4; i++) {
+                for (Tuple t : rows.get(i)) {
+                    int k = ((IntField) t.getField(0)).getValue();
+                    assertEquals(rep.outputFor(t.getField(0)), i);
+                    Integer prev = outputOf.put(k, i);
+                    assertTrue(prev == null || prev == i);
+                    seen.add(new ArrayList<Integer>(Arrays.asList(k, ((IntField) t.getField(1)).getValue())));
+                }
+            }
+            SystemTestUtil.matchTuples(TestUtil.createTupleList(2, flatten(seen)), tuples);
+            // rewinding every output runs the exchange again
+            for (DbIterator out : outs)
+                out.rewind();
+        }
+        for (DbIterator out : outs)
+            out.close();
+    }
+
+    /**
+     * Unit test that an exchange holds a bounded number of batches for an
+     * output nobody reads, and drops them once it is closed
+     */
+    @Test(timeout = 60000)
+    public void boundedOutputs() throws Exception {
+        // enough rows for many batches per output
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50000, 200, null, tuples);
+        HashRepartition rep = new HashRepartition(slices(hf, 3), 0, 2);
+        DbIterator stalled = rep.getOutput(0);
+        DbIterator read = rep.getOutput(1);
+        stalled.open();
+        read.open();
+        Thread.sleep(200);
+        synchronized (rep) {
+            assertTrue(rep.queued.get(0).size() <= ExchangeProducer.BATCHES_PER_OUTPUT);
+            assertTrue(rep.queued.get(1).size() <= ExchangeProducer.BATCHES_PER_OUTPUT);
+        }
+        // a closed output doesn't hold back the others
+        stalled.close();
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (rep.outputFor(new IntField(t.get(0))) == 1)
+                n++;
+        }
+        assertEquals(n, count(read));
+        read.close();
+    }
+
+    private int[] flatten(ArrayList<ArrayList<Integer>> rows) {
+        int[] flat = new int[rows.size() * 2];
+        for (int i = 0; i < rows.size(); i++) {
+            flat[2 * i] = rows.get(i).get(0);
+            flat[2 * i + 1] = rows.get(i).get(1);
+        }
+        return flat;
+    }
+
+    /**
+     * Unit test that a join run in parallel over repartitioned or broadcast
+     * inputs finds the same matches as the serial join
+     */
+    @Test
+    public void parallelJoins() throws Exception {
+        int[] keys = new int[] { 1, 7, 50, 120, 199, 5000 };
+        int expected = 0;
+        for (int k : keys) {
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) == k)
+                    expected++;
+            }
+        }
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        HashRepartition left = new HashRepartition(
+                new DbIterator[] { TestUtil.createTupleList(1, keys) }, 0, 3);
+        HashRepartition right = new HashRepartition(slices(3), 0, 3);
+        DbIterator[] joins = new DbIterator[3];
+        for (int i = 0; i < 3; i++)
+            joins[i] = new HashEquiJoin(eq, left.getOutput(i), right.getOutput(i));
+        Gather g = new Gather(joins);
+        g.open();
+        assertEquals(expected, count(g));
+        g.close();
+
+        DbIterator[] outer = slices(3);
+        Broadcast b = new Broadcast(new DbIterator[] { TestUtil.createTupleList(1, keys) }, 3);
+        b.setRewindable(true);
+        for (int i = 0; i < 3; i++)
+            joins[i] = new Join(eq, outer[i], b.getOutput(i));
+        g = new Gather(joins);
+        g.open();
+        assertEquals(expected, count(g));
+        g.close();
+    }
+
+    /**
+     * Unit test that joins which finish without reading their probe side,
+     * because their build side is empty, don't stall the other joins reading
+     * the same exchange
+     */
+    @Test(timeout = 60000)
+    public void emptyBuildSides() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50000, 200, null, tuples);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 7)
+                expected++;
+        }
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashRepartition left = new HashRepartition(
+                new DbIterator[] { TestUtil.createTupleList(1, new int[] { 7 }) }, 0, 4);
+        HashRepartition right = new HashRepartition(slices(hf, 3), 0, 4);
+        DbIterator[] joins = new DbIterator[4];
+        for (int i = 0; i < 4; i++)
+            joins[i] = new HashEquiJoin(eq, left.getOutput(i), right.getOutput(i));
+        Gather g = new Gather(joins);
+        g.open();
+        assertEquals(expected, count(g));
+        g.rewind();
+        assertEquals(expected, count(g));
+        g.close();
+    }
+
+    /**
+     * Unit test that a failure in a worker thread reaches the reader
+     */
+    @Test(expected = DbException.class)
+    public void workerFailure() throws Exception {
+        DbIterator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+            public TupleDesc getTupleDesc() {
+                return hf.getTupleDesc();
+            }
+            public void rewind() {
+            }
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("worker failed");
+            }
+            public DbIterator[] getChildren() {
+                return new DbIterator[0];
+            }
+            public void setChildren(DbIterator[] children) {
+            }
+        };
+        Gather g = new Gather(new DbIterator[] { slices(1)[0], failing });
+        g.open();
+        try {
+            count(g);
+        } finally {
+            g.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FusedScanTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private ArrayList<ArrayList<Integer>> expected;
+    private List<Predicate> preds;
+
+    /**
+     * Set up a 2-column table of 5000 rows over several pages, and the rows
+     * of it passing two filters
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, tuples);
+        tid = new TransactionId();
+        expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50 && t.get(1) != 7)
+                expected.add(t);
+        }
+        preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(7)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that a fused scan returns the tuples passing all of its
+     * filters, a tuple at a time, after a rewind, and a batch at a time
+     */
+    @Test
+    public void filtered() throws Exception {
+        FusedScan fs = new FusedScan(tid, hf.getId(), "t", preds);
+        SystemTestUtil.matchTuples(fs, expected);
+
+        fs.open();
+        assertTrue(fs.hasNext());
+        fs.next();
+        fs.rewind();
+        int n = 0;
+        TupleBatch b;
+        while ((b = fs.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++)
+                assertTrue(b.getIntColumn(0)[i] < 50 && b.getIntColumn(1)[i] != 7);
+            n += b.size();
+        }
+        fs.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * Unit test that int fields read from a page's bytes match the decoded
+     * tuples, before and after the page is modified, and that undecoded
+     * tuples are written back unchanged
+     */
+    @Test
+    public void inPlace() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] bytes = ((HeapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_ONLY)).getPageData();
+        HeapPage page = new HeapPage(pid, bytes);
+        assertTrue(Arrays.equals(bytes, page.getPageData()));
+
+        HeapPage decoded = new HeapPage(pid, bytes);
+        Tuple first = null;
+        for (int s = 0; s < decoded.numSlots; s++) {
+            Tuple t = decoded.getTuple(s);
+            if (t == null)
+                continue;
+            if (first == null)
+                first = t;
+            for (int f = 0; f < 2; f++)
+                assertEquals(((IntField) t.getField(f)).getValue(), page.getIntField(s, f));
+        }
+
+        page.deleteTuple(first);
+        Tuple added = new Tuple(first.getTupleDesc());
+        added.setField(0, new IntField(-12345));
+        added.setField(1, new IntField(678));
+        page.insertTuple(added);
+        int s = added.getRecordId().getTupleNumber();
+        assertEquals(-12345, page.getIntField(s, 0));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertEquals(678, reread.getIntField(s, 1));
+        assertTrue(Arrays.equals(page.getPageData(), reread.getPageData()));
+    }
+
+    /**
+     * Unit test that threads decoding the same page's slots at once all get
+     * the same tuples
+     */
+    @Test
+    public void sharedDecode() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final HeapPage page = new HeapPage(pid, ((HeapPage) Database.getBufferPool()
+                .getPage(tid, pid, Permissions.READ_ONLY)).getPageData());
+        final Tuple[][] seen = new Tuple[4][page.numSlots];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread(() -> {
+                for (int s = 0; s < page.numSlots; s++)
+                    seen[n][s] = page.getTuple(s);
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (int s = 0; s < page.numSlots; s++) {
+            for (int i = 1; i < seen.length; i++)
+                assertSame(seen[0][s], seen[i][s]);
+        }
+    }
+
+    /**
+     * Unit test that the planner fuses filters into the scans of tables
+     * with enough pages, and only those
+     */
+    @Test
+    public void planned() throws Exception {
+        // the planner looks fields up by their alias-qualified names
+        HeapFile named = new HeapFile(hf.getFile(), new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new String[] { "t.a", "t.b" }));
+        Database.getCatalog().addTable(named, "fused");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("fused", new TableStats(named.getId(), 10));
+        int pages = LogicalPlan.getFusedScanPages();
+        try {
+            for (int threshold : new int[] { 1, named.numPages() + 1 }) {
+                LogicalPlan.setFusedScanPages(threshold);
+                LogicalPlan lp = new LogicalPlan();
+                lp.addScan(named.getId(), "t");
+                lp.addFilter("t.a", Predicate.Op.LESS_THAN, "50");
+                lp.addFilter("t.b", Predicate.Op.NOT_EQUALS, "7");
+                lp.addProjectField("*", null);
+                DbIterator plan = lp.physicalPlan(tid, stats, false);
+                DbIterator below = ((Operator) plan).getChildren()[0];
+                assertEquals(threshold == 1, below instanceof FusedScan);
+                SystemTestUtil.matchTuples(plan, expected);
+            }
+        } finally {
+            LogicalPlan.setFusedScanPages(pages);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FusedScanTest.class);
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private HeapFile left, right;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> expected;
+
+    /**
+     * Set up two tables with many duplicate keys, and their equality join on
+     * the first column
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> l = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>();
+        left = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, l);
+        right = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, r);
+        tid = new TransactionId();
+
+        HashMap<Integer,ArrayList<ArrayList<Integer>>> byKey = new HashMap<Integer,ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> t : r) {
+            if (!byKey.containsKey(t.get(0)))
+                byKey.put(t.get(0), new ArrayList<ArrayList<Integer>>());
+            byKey.get(t.get(0)).add(t);
+        }
+        expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : l) {
+            if (!byKey.containsKey(t1.get(0)))
+                continue;
+            for (ArrayList<Integer> t2 : byKey.get(t1.get(0))) {
+                ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HashEquiJoin join(int budget) {
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        j.setMemoryBudget(budget);
+        return j;
+    }
+
+    /**
+     * Unit test that the result is the same whether child1 fits in memory,
+     * spills some partitions, or spills partitions larger than the budget
+     */
+    @Test
+    public void spilling() throws Exception {
+        for (int budget : new int[] { HashEquiJoin.MAP_SIZE, 1000, 50 }) {
+            SystemTestUtil.matchTuples(join(budget), expected);
+            SystemTestUtil.matchTuples(new TupleAdapter(join(budget)), expected);
+        }
+    }
+
+    /**
+     * Unit test for rewinding a join that has spilled
+     */
+    @Test
+    public void rewind() throws Exception {
+        HashEquiJoin j = join(100);
+        j.open();
+        for (int i = 0; i < 10; i++)
+            j.next();
+        j.rewind();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * Unit test that string keys and columns survive being spilled
+     */
+    @Test
+    public void stringKeys() throws Exception {
+        Object[] rows1 = new Object[400];
+        Object[] rows2 = new Object[200];
+        for (int i = 0; i < 200; i++) {
+            rows1[2 * i] = "key" + (i % 50);
+            rows1[2 * i + 1] = "left" + i;
+        }
+        for (int i = 0; i < 100; i++) {
+            rows2[2 * i] = "key" + i;
+            rows2[2 * i + 1] = "right" + i;
+        }
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, rows1), TestUtil.createTupleList(2, rows2));
+        j.setMemoryBudget(10);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertEquals(t.getField(0), t.getField(2));
+            assertTrue(((StringField) t.getField(1)).getValue().startsWith("left"));
+            n++;
+        }
+        j.close();
+        assertEquals(200, n);
+    }
+
+    /**
+     * Unit test that a runtime filter handed down through a projection and
+     * a filter drops probe rows at the scan, in place in a fused scan, and
+     * that a join publishing one returns the same rows
+     */
+    @Test
+    public void runtimeFilter() throws Exception {
+        RuntimeFilter keys = new RuntimeFilter();
+        for (int k = 0; k < 50; k++)
+            keys.add(k);
+        keys.finish();
+        ArrayList<Integer> swap = new ArrayList<Integer>(Arrays.asList(1, 0));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        Predicate notMinus = new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(-1));
+        DbIterator[] scans = new DbIterator[] {
+                new SeqScan(tid, right.getId(), "r"),
+                new FusedScan(tid, right.getId(), "r", Arrays.asList(notMinus)) };
+        for (DbIterator scan : scans) {
+            Project probe = new Project(swap, types, new Filter(notMinus, scan));
+            probe.open();
+            assertTrue(RuntimeFilter.publish(probe, 1, keys));
+            int passed = 0;
+            while (probe.hasNext()) {
+                if (((IntField) probe.next().getField(1)).getValue() >= 50)
+                    passed++;
+            }
+            probe.close();
+            // keys above the largest key added are all dropped
+            assertEquals(0, passed);
+        }
+
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expected) {
+            if (t.get(0) < 50)
+                small.add(new ArrayList<Integer>(Arrays.asList(t.get(0), t.get(1), t.get(3), t.get(2))));
+        }
+        Predicate below50 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+        for (DbIterator scan : scans) {
+            HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new Filter(below50, new SeqScan(tid, left.getId(), "l")),
+                    new Project(swap, types, new Filter(notMinus, scan)));
+            SystemTestUtil.matchTuples(j, small);
+        }
+    }
+
+    /**
+     * Register a table over the same file as hf, with the planner's
+     * alias-qualified field names
+     */
+    private HeapFile named(HeapFile hf, String alias) {
+        HeapFile named = new HeapFile(hf.getFile(), new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { alias + ".f0", alias + ".f1" }));
+        Database.getCatalog().addTable(named, alias + "table");
+        return named;
+    }
+
+    /**
+     * Unit test that the planner hash joins an equality between unsorted
+     * inputs, with the same result as joining by hand
+     */
+    @Test
+    public void planned() throws Exception {
+        HeapFile l = named(left, "l");
+        HeapFile r = named(right, "r");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ltable", new TableStats(l.getId(), 10));
+        stats.put("rtable", new TableStats(r.getId(), 10));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(l.getId(), "l");
+        lp.addScan(r.getId(), "r");
+        lp.addJoin("l.f0", "r.f0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof HashEquiJoin);
+
+        // the optimizer may have swapped the inputs; compare by field name
+        TupleDesc td = plan.getTupleDesc();
+        String[] names = new String[] { "l.f0", "l.f1", "r.f0", "r.f1" };
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (String name : names)
+                row.add(((IntField) t.getField(td.fieldNameToIndex(name))).getValue());
+            actual.add(row);
+        }
+        plan.close();
+        Comparator<ArrayList<Integer>> byFields = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        };
+        ArrayList<ArrayList<Integer>> want = new ArrayList<ArrayList<Integer>>(expected);
+        Collections.sort(want, byFields);
+        Collections.sort(actual, byFields);
+        assertEquals(want, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -121,6 +121,25 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test that positions past the int range are rejected rather than
+     * wrapped around
+     */
+    @Test
+    public void positionOverflow() throws Exception {
+        int slots = hf.getSlotsPerPage();
+        int lastPage = Integer.MAX_VALUE / slots;
+        RecordId rid = new RecordId(new HeapPageId(hf.getId(), lastPage), 0);
+        assertEquals(rid, hf.getRecordId(hf.getPosition(rid)));
+        assertTrue(hf.positionsFit(hf.numPages()));
+        assertFalse(hf.positionsFit(lastPage + 2));
+        try {
+            hf.getPosition(new RecordId(new HeapPageId(hf.getId(), lastPage + 1), 0));
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+        }
+    }
+
     /**
      * JUnit suite target
      */
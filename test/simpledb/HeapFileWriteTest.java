@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.File;
+import java.util.UUID;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,52 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.addTuple() on a heap file split into segments
+     */
+    @Test public void addTupleSegmented() throws Exception {
+        File f = File.createTempFile("segmented", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), 2);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData()));
+
+        // four full pages and one more tuple take up three segments
+        for (int i = 0; i < 504 * 4 + 1; ++i)
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(5, hf.numPages());
+        // a file opened afterwards finds the segments on disk
+        assertEquals(5, new HeapFile(f, Utility.getTupleDesc(2), 2).numPages());
+        for (int i = 1; i <= 2; i++)
+            new File(f.getPath() + "." + i).deleteOnExit();
+        assertEquals(2 * BufferPool.getPageSize(), f.length());
+        assertEquals(2 * BufferPool.getPageSize(), new File(f.getPath() + ".1").length());
+        assertEquals(BufferPool.getPageSize(), new File(f.getPath() + ".2").length());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 4 + 1, count);
+    }
+
+    /**
+     * Unit test that page offsets past 2 GB don't overflow
+     */
+    @Test public void largeOffsets() throws Exception {
+        int pgNo = Integer.MAX_VALUE / BufferPool.getPageSize() + 10;
+        assertEquals((long) pgNo * BufferPool.getPageSize(), empty.offsetFor(pgNo));
+        assertTrue(empty.offsetFor(pgNo) > Integer.MAX_VALUE);
+
+        HeapFile hf = new HeapFile(new File("big.dat"), Utility.getTupleDesc(2), 1024);
+        assertEquals(new File("big.dat." + (pgNo / 1024)), hf.fileFor(pgNo));
+        assertEquals((long) (pgNo % 1024) * BufferPool.getPageSize(), hf.offsetFor(pgNo));
+    }
+
     /**
      * JUnit suite target
      */
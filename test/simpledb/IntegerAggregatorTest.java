@@ -244,6 +244,41 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
   }
 
 
+  /**
+   * Test that groups of many int keys, including extreme ones, keep their
+   * own aggregates as the group table grows
+   */
+  @Test public void manyIntGroups() throws Exception {
+    java.util.Random r = new java.util.Random(7);
+    java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<Integer, Integer>();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.MAX);
+    TupleBatch batch = new TupleBatch(new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE }));
+    for (int i = 0; i < 20000; i++) {
+      int key = i % 7 == 0 ? Integer.MIN_VALUE + r.nextInt(3) : r.nextInt(5000) - 2500;
+      int value = r.nextInt();
+      Integer old = expected.get(key);
+      expected.put(key, old == null ? value : Math.max(old, value));
+      Tuple t = new Tuple(batch.getTupleDesc());
+      t.setField(0, new IntField(key));
+      t.setField(1, new IntField(value));
+      if (i % 2 == 0)
+        agg.mergeTupleIntoGroup(t);
+      else
+        batch.addTuple(t);
+    }
+    agg.mergeBatchIntoGroups(batch);
+    DbIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertEquals(expected.get(key).intValue(), ((IntField) t.getField(1)).getValue());
+      groups++;
+    }
+    assertEquals(expected.size(), groups);
+  }
+
   /**
    * JUnit suite target
    */
@@ -105,6 +105,35 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Join.getNext() with blocks smaller than the outer relation, including
+   * one that doesn't divide it evenly
+   */
+  @Test public void smallBlocks() throws Exception {
+    for (int blockSize : new int[] { 1, 3, 4 }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      Join op = new Join(pred, scan1, scan2);
+      op.setBlockSize(blockSize);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.close();
+      gtJoin.close();
+
+      pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+      op = new Join(pred, scan1, scan2);
+      op.setBlockSize(blockSize);
+      op.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.rewind();
+      eqJoin.rewind();
+      TestUtil.matchAllTuples(eqJoin, op);
+      op.close();
+      eqJoin.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
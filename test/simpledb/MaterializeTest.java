@@ -0,0 +1,167 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MaterializeTest extends SimpleDbTestBase {
+    private HeapFile wide;
+    private HeapFile narrow;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> wideTuples;
+
+    /**
+     * Register a table with the planner's alias-qualified field names
+     */
+    private HeapFile table(String alias, int columns, int rows,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(columns, rows, 100, null, tuples);
+        Type[] types = new Type[columns];
+        String[] names = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            types[i] = Type.INT_TYPE;
+            names[i] = alias + ".f" + i;
+        }
+        HeapFile named = new HeapFile(hf.getFile(), new TupleDesc(types, names));
+        Database.getCatalog().addTable(named, alias + "table");
+        return named;
+    }
+
+    /**
+     * Set up a 6-column table of 3000 rows and a 2-column table of 200 rows
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        wideTuples = new ArrayList<ArrayList<Integer>>();
+        wide = table("w", 6, 3000, wideTuples);
+        narrow = table("n", 2, 200, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Unit test that materializing the positions of some of a table's
+     * fields returns the table's tuples again
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        SeqScan ss = new SeqScan(tid, wide.getId(), "w");
+        PositionProject pp = new PositionProject(ss, new int[] { 2 }, wide.getId(), "w");
+        assertEquals(2, pp.getTupleDesc().numFields());
+        assertEquals("w" + PositionProject.POSITION, pp.getTupleDesc().getFieldName(1));
+        Materialize m = new Materialize(tid, pp, new int[] { 1 }, new int[] { 2 },
+                new int[] { wide.getId() });
+        assertEquals(wide.getTupleDesc(), m.getTupleDesc());
+        SystemTestUtil.matchTuples(m, wideTuples);
+    }
+
+    /**
+     * Unit test that the planner narrows wide tables below their joins and
+     * materializes them above, with the same results as joining the whole
+     * tables
+     */
+    @Test
+    public void planned() throws Exception {
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wtable", new TableStats(wide.getId(), 10));
+        stats.put("ntable", new TableStats(narrow.getId(), 10));
+        int columns = LogicalPlan.getLateMaterializationColumns();
+        ArrayList<String> late = null;
+        try {
+            for (int threshold : new int[] { 1, 100 }) {
+                LogicalPlan.setLateMaterializationColumns(threshold);
+                LogicalPlan lp = new LogicalPlan();
+                lp.addScan(wide.getId(), "w");
+                lp.addScan(narrow.getId(), "n");
+                lp.addJoin("w.f0", "n.f0", Predicate.Op.EQUALS);
+                lp.addFilter("w.f1", Predicate.Op.LESS_THAN, "50");
+                lp.addProjectField("*", null);
+                DbIterator plan = lp.physicalPlan(tid, stats, false);
+                DbIterator below = ((Operator) plan).getChildren()[0];
+                assertEquals(threshold == 1, below instanceof Materialize);
+                assertEquals(8, plan.getTupleDesc().numFields());
+                ArrayList<String> result = rows(plan);
+                assertFalse(result.isEmpty());
+                if (late == null)
+                    late = result;
+                else
+                    assertEquals(late, result);
+            }
+        } finally {
+            LogicalPlan.setLateMaterializationColumns(columns);
+        }
+    }
+
+    /**
+     * Unit test that the planner fetches only the fields read after the
+     * joins, and doesn't narrow a table none of whose other fields are read
+     */
+    @Test
+    public void referencedFields() throws Exception {
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wtable", new TableStats(wide.getId(), 10));
+        stats.put("ntable", new TableStats(narrow.getId(), 10));
+        int columns = LogicalPlan.getLateMaterializationColumns();
+        try {
+            // the narrow table is never narrowed
+            LogicalPlan.setLateMaterializationColumns(2);
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(wide.getId(), "w");
+            lp.addScan(narrow.getId(), "n");
+            lp.addJoin("w.f0", "n.f0", Predicate.Op.EQUALS);
+            lp.addProjectField("w.f3", null);
+            lp.addOrderBy("w.f4", true);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            DbIterator below = ((Operator) plan).getChildren()[0];
+            below = ((Operator) below).getChildren()[0];
+            assertTrue(below instanceof Materialize);
+            // n.f0, n.f1, and the join field and fields read of w
+            assertEquals(5, below.getTupleDesc().numFields());
+            ArrayList<String> result = rows(plan);
+            assertFalse(result.isEmpty());
+            LogicalPlan.setLateMaterializationColumns(100);
+            assertEquals(rows(lp.physicalPlan(tid, stats, false)), result);
+
+            // only the join field of w is read: nothing to fetch
+            LogicalPlan.setLateMaterializationColumns(2);
+            lp = new LogicalPlan();
+            lp.addScan(wide.getId(), "w");
+            lp.addScan(narrow.getId(), "n");
+            lp.addJoin("w.f0", "n.f0", Predicate.Op.EQUALS);
+            lp.addProjectField("n.f1", null);
+            plan = lp.physicalPlan(tid, stats, false);
+            assertFalse(((Operator) plan).getChildren()[0] instanceof Materialize);
+        } finally {
+            LogicalPlan.setLateMaterializationColumns(columns);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MaterializeTest.class);
+    }
+}
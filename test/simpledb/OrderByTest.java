@@ -0,0 +1,157 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private int[] data;
+
+    /**
+     * Set up an input with many duplicate keys, numbered in input order
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(7);
+        data = new int[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            data[2 * i] = r.nextInt(500) - 250;
+            data[2 * i + 1] = i;
+        }
+    }
+
+    private ArrayList<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        return result;
+    }
+
+    /**
+     * The rows of data sorted on the first field with a stable sort
+     */
+    private ArrayList<String> expected(final boolean asc) {
+        Integer[] order = new Integer[data.length / 2];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Integer.compare(data[2 * a], data[2 * b]);
+                return asc ? c : -c;
+            }
+        });
+        ArrayList<String> result = new ArrayList<String>();
+        for (int i : order)
+            result.add(data[2 * i] + " " + data[2 * i + 1] + "\n");
+        return result;
+    }
+
+    /**
+     * Unit test that sorting in runs on disk gives the same stable order as
+     * sorting in memory, in both directions, including budgets that need more
+     * than one merge pass
+     */
+    @Test
+    public void externalSort() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            ArrayList<String> expected = expected(asc);
+            for (int budget : new int[] { 7, 1000, 3000, OrderBy.MEMORY_BUDGET }) {
+                OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+                op.setMemoryBudget(budget);
+                op.open();
+                assertEquals(expected, rows(op));
+                op.rewind();
+                assertEquals(expected, rows(op));
+                op.close();
+            }
+        }
+    }
+
+    /**
+     * Unit test for an external sort on a string field through nextBatch
+     */
+    @Test
+    public void externalStringSort() throws Exception {
+        Object[] strings = new Object[2 * 300];
+        for (int i = 0; i < 300; i++) {
+            strings[2 * i] = "k" + (char) ('a' + (i * 7) % 26);
+            strings[2 * i + 1] = i;
+        }
+        OrderBy inMemory = new OrderBy(0, false, TestUtil.createTupleList(2, strings));
+        OrderBy external = new OrderBy(0, false, TestUtil.createTupleList(2, strings));
+        external.setMemoryBudget(20);
+        inMemory.open();
+        external.open();
+        ArrayList<String> actual = new ArrayList<String>();
+        TupleBatch b;
+        while ((b = external.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++)
+                actual.add(b.getTuple(i).toString());
+        }
+        assertEquals(rows(inMemory), actual);
+        inMemory.close();
+        external.close();
+    }
+
+    /**
+     * Unit test that sorts large enough to run in parallel keep a stable
+     * order, for int keys and for string keys that often share more than
+     * their normalized prefix
+     */
+    @Test
+    public void parallelSort() throws Exception {
+        int n = 3 * NormalizedKeySort.PARALLEL_THRESHOLD;
+        Random r = new Random(11);
+        Object[] strings = new Object[2 * n];
+        int[] ints = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            int k = r.nextInt(2000);
+            strings[2 * i] = "key" + k;
+            strings[2 * i + 1] = i;
+            ints[2 * i] = k - 1000;
+            ints[2 * i + 1] = i;
+        }
+        for (boolean asc : new boolean[] { true, false }) {
+            for (Object[] data : new Object[][] { strings, toObjects(ints) }) {
+                final boolean a = asc;
+                Integer[] order = new Integer[n];
+                for (int i = 0; i < n; i++)
+                    order[i] = i;
+                final Object[] d = data;
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @SuppressWarnings("unchecked")
+                    public int compare(Integer x, Integer y) {
+                        int c = ((Comparable<Object>) d[2 * x]).compareTo(d[2 * y]);
+                        return a ? c : -c;
+                    }
+                });
+                OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+                op.open();
+                for (int i = 0; i < n; i++)
+                    assertEquals(new IntField(order[i]), op.next().getField(1));
+                assertFalse(op.hasNext());
+                op.close();
+            }
+        }
+    }
+
+    private static Object[] toObjects(int[] data) {
+        Object[] result = new Object[data.length];
+        for (int i = 0; i < data.length; i++)
+            result[i] = data[i];
+        return result;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
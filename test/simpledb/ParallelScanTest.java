@@ -0,0 +1,101 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int parallelism;
+
+    /**
+     * Set up a 2-column table of 8000 rows spread over a couple dozen pages
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 8000, 100, null, tuples);
+        tid = new TransactionId();
+        parallelism = Exchange.getParallelism();
+        Exchange.setParallelism(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Exchange.setParallelism(parallelism);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that every page is read exactly once, whatever the morsel
+     * size
+     */
+    @Test
+    public void wholeTable() throws Exception {
+        List<Predicate> none = Collections.emptyList();
+        for (int morselPages : new int[] { 1, 3, 1000 }) {
+            SystemTestUtil.matchTuples(
+                    new ParallelScan(tid, hf.getId(), "t", none, morselPages), tuples);
+        }
+    }
+
+    /**
+     * Unit test that the filters are applied in each morsel, and that a
+     * rewind starts the scan over
+     */
+    @Test
+    public void filtered() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50 && t.get(1) >= 10)
+                expected.add(t);
+        }
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)));
+        ParallelScan ps = new ParallelScan(tid, hf.getId(), "t", preds, 2);
+        SystemTestUtil.matchTuples(ps, expected);
+
+        ps.open();
+        assertTrue(ps.hasNext());
+        ps.next();
+        ps.rewind();
+        int n = 0;
+        while (ps.hasNext()) {
+            ps.next();
+            n++;
+        }
+        ps.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * Unit test that closing a scan nobody has read to the end stops it
+     */
+    @Test
+    public void closeEarly() throws Exception {
+        List<Predicate> none = Collections.emptyList();
+        ParallelScan ps = new ParallelScan(tid, hf.getId(), "t", none, 1);
+        ps.open();
+        ps.next();
+        ps.close();
+        SystemTestUtil.matchTuples(new ParallelScan(tid, hf.getId(), "t", none, 1), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PartitionedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = Utility.getTupleDesc(2, "c");
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HeapFile[] emptyPartitions(int n) throws Exception {
+        HeapFile[] partitions = new HeapFile[n];
+        for (int i = 0; i < n; i++) {
+            File f = File.createTempFile("partition", "dat");
+            f.deleteOnExit();
+            partitions[i] = new HeapFile(f, td);
+        }
+        return partitions;
+    }
+
+    /**
+     * Create a table over the given partitions holding (i, i * 2) for i in
+     * [0, 1000)
+     */
+    private PartitionedFile fill(PartitionedFile pf, String name) throws Exception {
+        Database.getCatalog().addTable(pf, name);
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, pf.getId(), Utility.getHeapTuple(new int[] { i, i * 2 }));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * 2)));
+        }
+        return pf;
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test that every tuple is stored once, in the partition it belongs in
+     */
+    @Test
+    public void hashPartitioning() throws Exception {
+        PartitionedFile pf = fill(new PartitionedFile(emptyPartitions(4), 0), "hashed");
+        SystemTestUtil.matchTuples(new SeqScan(tid, pf.getId(), "hashed"), tuples);
+
+        for (int i = 0; i < 4; i++) {
+            boolean[] only = new boolean[4];
+            only[i] = true;
+            DbFileIterator it = pf.iterator(tid, only);
+            it.open();
+            while (it.hasNext())
+                assertEquals(i, pf.partitionFor(it.next().getField(0)));
+            it.close();
+        }
+
+        boolean[] keep = pf.prune(Predicate.Op.EQUALS, new IntField(17));
+        PartitionScan scan = new PartitionScan(tid, pf.getId(), "hashed", keep);
+        assertEquals(1, scan.numPartitions());
+        assertTrue(count(scan) > 0);
+        assertTrue(pf.prune(Predicate.Op.GREATER_THAN, new IntField(17))[0]);
+    }
+
+    /**
+     * Unit test for range pruning
+     */
+    @Test
+    public void rangePruning() throws Exception {
+        Field[] bounds = new Field[] { new IntField(250), new IntField(500), new IntField(750) };
+        PartitionedFile pf = fill(new PartitionedFile(emptyPartitions(4), 0, bounds), "ranged");
+        SystemTestUtil.matchTuples(new SeqScan(tid, pf.getId(), "ranged"), tuples);
+
+        assertTrue(Arrays.equals(new boolean[] { true, true, false, false },
+                pf.prune(Predicate.Op.LESS_THAN, new IntField(500))));
+        assertTrue(Arrays.equals(new boolean[] { true, true, true, false },
+                pf.prune(Predicate.Op.LESS_THAN_OR_EQ, new IntField(500))));
+        assertTrue(Arrays.equals(new boolean[] { false, false, true, true },
+                pf.prune(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500))));
+        assertTrue(Arrays.equals(new boolean[] { false, false, false, true },
+                pf.prune(Predicate.Op.EQUALS, new IntField(900))));
+        assertTrue(Arrays.equals(new boolean[] { true, true, true, true },
+                pf.prune(Predicate.Op.NOT_EQUALS, new IntField(900))));
+
+        PartitionScan scan = new PartitionScan(tid, pf.getId(), "ranged",
+                pf.prune(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(750)));
+        assertEquals(250, count(scan));
+    }
+
+    /**
+     * Unit test that deletes reach the partition holding the tuple
+     */
+    @Test
+    public void delete() throws Exception {
+        PartitionedFile pf = fill(new PartitionedFile(emptyPartitions(3), 0), "hashed");
+        SeqScan scan = new SeqScan(tid, pf.getId(), "hashed");
+        scan.open();
+        Tuple victim = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(999, count(new SeqScan(tid, pf.getId(), "hashed")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedFileTest.class);
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -55,6 +56,31 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test that compiled predicates agree with Field.compare for every
+   * operator over int and string fields
+   */
+  @Test public void compiledMatchesCompare() {
+    Field[][] values = {
+      { new IntField(-5), new IntField(0), new IntField(7) },
+      { new StringField("ab", 10), new StringField("abc", 10), new StringField("b", 10) } };
+    for (Field[] fs : values) {
+      TupleDesc td = new TupleDesc(new Type[] { fs[0].getType(), fs[0].getType() });
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Field a : fs) {
+          for (Field b : fs) {
+            Tuple t = new Tuple(td);
+            t.setField(0, a);
+            t.setField(1, b);
+            boolean expected = a.compare(op, b);
+            assertEquals(expected, new Predicate(0, op, b).filter(t));
+            assertEquals(expected, new JoinPredicate(0, op, 1).filter(t, t));
+          }
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
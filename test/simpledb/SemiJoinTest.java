@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    1, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    4, 6, 7 });
+  }
+
+  /**
+   * Unit test for SemiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2, false);
+    assertEquals(Utility.getTupleDesc(width1), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test that a semi-join returns each matching row once, and that
+   * an anti-join returns the others, after a rewind too
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2, false);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 3, 4 }), op);
+    op.close();
+
+    op = new SemiJoin(pred, scan1, scan2, true);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 5, 6, 7, 8 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for a semi-join using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2, false);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 3, 4, 5, 6, 7, 8 }), op);
+  }
+
+  /**
+   * Register a 2-column table with the planner's alias-qualified field names
+   */
+  private HeapFile table(String alias, int rows, int maxValue,
+      ArrayList<ArrayList<Integer>> tuples) throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, tuples);
+    HeapFile named = new HeapFile(hf.getFile(), new TupleDesc(
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new String[] { alias + ".f0", alias + ".f1" }));
+    Database.getCatalog().addTable(named, alias + "table");
+    return named;
+  }
+
+  /**
+   * Unit test that the planner joins a table with a subquery, as
+   * a.f0 IN (SELECT b.f0 FROM b WHERE b.f1 &lt; 50) and as NOT IN
+   */
+  @Test public void planned() throws Exception {
+    ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> inner = new ArrayList<ArrayList<Integer>>();
+    HeapFile a = table("a", 2000, 200, outer);
+    HeapFile b = table("b", 300, 100, inner);
+    Map<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("atable", new TableStats(a.getId(), 10));
+    stats.put("btable", new TableStats(b.getId(), 10));
+
+    HashSet<Integer> keys = new HashSet<Integer>();
+    for (ArrayList<Integer> t : inner) {
+      if (t.get(1) < 50)
+        keys.add(t.get(0));
+    }
+    TransactionId tid = new TransactionId();
+    int[] estimates = new int[2];
+    for (boolean anti : new boolean[] { false, true }) {
+      ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+      for (ArrayList<Integer> t : outer) {
+        if (keys.contains(t.get(0)) != anti)
+          expected.add(t);
+      }
+
+      LogicalPlan sub = new LogicalPlan();
+      sub.addScan(b.getId(), "b");
+      sub.addFilter("b.f1", Predicate.Op.LESS_THAN, "50");
+      sub.addProjectField("b.f0", null);
+      LogicalPlan lp = new LogicalPlan();
+      lp.addScan(a.getId(), "a");
+      lp.addJoin("a.f0", sub.physicalPlan(tid, stats, false), Predicate.Op.EQUALS, anti);
+      lp.addProjectField("*", null);
+      DbIterator plan = lp.physicalPlan(tid, stats, false);
+      SystemTestUtil.matchTuples(plan, expected);
+
+      DbIterator semi = plan;
+      while (!(semi instanceof SemiJoin))
+        semi = ((Operator) semi).getChildren()[0];
+      OperatorCardinality.updateOperatorCardinality((Operator) semi,
+          lp.getTableAliasToIdMapping(), stats);
+      estimates[anti ? 1 : 0] = ((Operator) semi).getEstimatedCardinality();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    // the semi-join keeps some of a's rows, the anti-join the rest
+    assertTrue(estimates[0] > 1 && estimates[0] < 2000);
+    assertTrue(Math.abs(estimates[0] + estimates[1] - 2000) <= 2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SemiJoinTest.class);
+  }
+}
@@ -0,0 +1,175 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private int[] left, right;
+
+    /**
+     * Set up two inputs with duplicate keys on both sides, in no order
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(42);
+        left = new int[2 * 300];
+        right = new int[2 * 200];
+        for (int i = 0; i < 300; i++) {
+            left[2 * i] = r.nextInt(60);
+            left[2 * i + 1] = i;
+        }
+        for (int i = 0; i < 200; i++) {
+            right[2 * i] = r.nextInt(60);
+            right[2 * i + 1] = -i;
+        }
+    }
+
+    private DbIterator sorted(int[] data) {
+        return new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    }
+
+    private ArrayList<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Unit test that every supported predicate finds the same matches as a
+     * nested loops join
+     */
+    @Test
+    public void matchesNestedLoops() throws Exception {
+        Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            ArrayList<String> expected = rows(new Join(p,
+                    TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+            assertFalse(expected.isEmpty());
+            assertEquals(op.toString(), expected,
+                    rows(new SortMergeJoin(p, sorted(left), sorted(right))));
+        }
+    }
+
+    /**
+     * Unit test that the output follows the outer join field, and that a
+     * rewind starts over
+     */
+    @Test
+    public void orderAndRewind() throws Exception {
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                sorted(left), sorted(right));
+        j.open();
+        int n = 0;
+        int last = Integer.MIN_VALUE;
+        while (j.hasNext()) {
+            int k = ((IntField) j.next().getField(0)).getValue();
+            assertTrue(k >= last);
+            last = k;
+            n++;
+        }
+        j.rewind();
+        int m = 0;
+        while (j.hasNext()) {
+            j.next();
+            m++;
+        }
+        j.close();
+        assertEquals(n, m);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEqualsUnsupported() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                sorted(left), sorted(right));
+    }
+
+    private DbIterator named(String alias) {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { alias + ".x", alias + ".y" });
+        return new TupleIterator(td, new ArrayList<Tuple>());
+    }
+
+    /**
+     * Unit test that the planner merge joins range predicates whose inner
+     * side fits in memory and equalities with a sorted input, hash joins
+     * other equalities, and nested-loop joins the other range predicates
+     */
+    @Test
+    public void instantiateJoin() throws Exception {
+        LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.x", "b.x", Predicate.Op.LESS_THAN);
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.x", "b.x", Predicate.Op.EQUALS);
+        int fits = SortMergeJoin.RANGE_BUFFER_SIZE;
+        assertTrue(JoinOptimizer.instantiateJoin(lt, named("a"), named("b"), fits) instanceof SortMergeJoin);
+        assertTrue(JoinOptimizer.instantiateJoin(lt, named("a"), named("b"), fits + 1) instanceof Join);
+        assertTrue(JoinOptimizer.instantiateJoin(lt, named("a"), named("b")) instanceof Join);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, named("a"), named("b")) instanceof HashEquiJoin);
+        DbIterator sortedA = new OrderBy(0, true, named("a"));
+        DbIterator j = JoinOptimizer.instantiateJoin(eq, sortedA, named("b"));
+        assertTrue(j instanceof SortMergeJoin);
+        assertSame(sortedA, ((SortMergeJoin) j).getChildren()[0]);
+    }
+
+    /**
+     * Register a 2-column table with the planner's alias-qualified field names
+     */
+    private HeapFile table(String alias, int rows) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, 100, null, null);
+        HeapFile named = new HeapFile(hf.getFile(), new TupleDesc(
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { alias + ".f0", alias + ".f1" }));
+        Database.getCatalog().addTable(named, alias + "table");
+        return named;
+    }
+
+    /**
+     * Unit test that the planner merge joins a range predicate between
+     * tables small enough to buffer, with the same result as a nested loops
+     * join
+     */
+    @Test
+    public void planned() throws Exception {
+        HeapFile a = table("a", 300);
+        HeapFile b = table("b", 200);
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("atable", new TableStats(a.getId(), 10));
+        stats.put("btable", new TableStats(b.getId(), 10));
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.f0", "b.f0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SortMergeJoin);
+        SortMergeJoin j = (SortMergeJoin) ((Operator) plan).getChildren()[0];
+
+        // the optimizer may have swapped the inputs
+        boolean swapped = j.getJoinField1Name().startsWith("b.");
+        DbIterator scan1 = new SeqScan(tid, swapped ? b.getId() : a.getId(), "x");
+        DbIterator scan2 = new SeqScan(tid, swapped ? a.getId() : b.getId(), "y");
+        assertEquals(rows(new Join(j.getJoinPredicate(), scan1, scan2)), rows(j));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TopNTest extends SimpleDbTestBase {
+    private int[] data;
+
+    /**
+     * Set up an input with many duplicate keys, numbered in input order
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(3);
+        data = new int[2 * 3000];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = r.nextInt(100);
+            data[2 * i + 1] = i;
+        }
+    }
+
+    private ArrayList<String> rows(DbIterator it, int max) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext() && result.size() < max)
+            result.add(it.next().toString());
+        return result;
+    }
+
+    /**
+     * Unit test that TopN returns the first rows OrderBy does, ties included
+     */
+    @Test
+    public void matchesOrderBy() throws Exception {
+        for (boolean asc : new boolean[] { true, false }) {
+            for (int n : new int[] { 0, 1, 10, 1500, 3000, 5000 }) {
+                OrderBy sorted = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+                TopN top = new TopN(0, asc, n, TestUtil.createTupleList(2, data));
+                sorted.open();
+                top.open();
+                ArrayList<String> expected = rows(sorted, n);
+                assertEquals(expected, rows(top, Integer.MAX_VALUE));
+                top.rewind();
+                assertEquals(expected, rows(top, Integer.MAX_VALUE));
+                top.close();
+                sorted.close();
+            }
+        }
+    }
+
+    /**
+     * Unit test that Limit stops reading its child once it has its rows
+     */
+    @Test
+    public void limitStopsEarly() throws Exception {
+        final int[] read = new int[1];
+        TupleIterator child = TestUtil.createTupleList(2, data);
+        Filter counting = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                                                   new IntField(0)), child) {
+            private static final long serialVersionUID = 1L;
+            protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+                read[0]++;
+                return super.fetchNext();
+            }
+        };
+        Limit op = new Limit(25, counting);
+        op.open();
+        assertEquals(25, rows(op, Integer.MAX_VALUE).size());
+        assertEquals(25, read[0]);
+        op.rewind();
+        assertEquals(25, rows(op, Integer.MAX_VALUE).size());
+        op.close();
+    }
+
+    /**
+     * Unit test for removing LIMIT clauses before statements are parsed
+     */
+    @Test
+    public void stripLimit() throws Exception {
+        Parser p = new Parser();
+        assertEquals("SELECT * FROM t ORDER BY t.a;",
+                     p.stripLimit("SELECT * FROM t ORDER BY t.a LIMIT 10;"));
+        assertEquals("select * from t", p.stripLimit("select * from t limit\n 3 "));
+        assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t;"));
+        assertEquals("SELECT * FROM limits;", p.stripLimit("SELECT * FROM limits;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
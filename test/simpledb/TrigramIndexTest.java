@@ -0,0 +1,96 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TrigramIndexTest extends SimpleDbTestBase {
+    private static final String[] WORDS = { "apple", "banana", "cherry",
+        "grapefruit", "pineapple", "applesauce", "crabapple", "melon" };
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up a (string, int) table holding every word several times
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+                                     new String[] { "name", "id" });
+        File f = File.createTempFile("trigram", "dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData()));
+
+        tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(WORDS[i % WORDS.length] + i, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int countMatches(DbIterator it, Predicate p) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            if (p.filter(it.next()))
+                count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Unit test that LIKE candidates are a superset of the real matches
+     */
+    @Test
+    public void likeCandidates() throws Exception {
+        TrigramIndex idx = TrigramIndex.create(tid, hf, 0);
+        assertTrue(idx.numTrigrams() > 0);
+
+        Predicate p = new Predicate(0, Predicate.Op.LIKE, new StringField("apple", Type.STRING_LEN));
+        CompressedBitmap candidates = idx.lookup(p.getOp(), p.getOperand());
+        assertNotNull(candidates);
+        // apple, pineapple, applesauce and crabapple rows
+        assertEquals(100, candidates.cardinality());
+
+        int expected = countMatches(new SeqScan(tid, hf.getId()), p);
+        int actual = countMatches(new BitmapIndexScan(tid, hf.getId(), "t", candidates), p);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for patterns that can't use the index, or can't match
+     */
+    @Test
+    public void shortAndMissingPatterns() throws Exception {
+        TrigramIndex idx = TrigramIndex.create(tid, hf, 0);
+        assertNull(idx.lookup(Predicate.Op.LIKE, new StringField("ap", Type.STRING_LEN)));
+        assertNull(idx.lookup(Predicate.Op.GREATER_THAN, new StringField("apple", Type.STRING_LEN)));
+        assertTrue(idx.lookup(Predicate.Op.LIKE, new StringField("kiwi", Type.STRING_LEN)).isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TrigramIndexTest.class);
+    }
+}